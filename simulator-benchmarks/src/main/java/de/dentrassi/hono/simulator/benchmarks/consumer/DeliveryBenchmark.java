@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.benchmarks.consumer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.codec.ReadableBuffer;
+import org.apache.qpid.proton.message.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dentrassi.hono.demo.common.AppRuntime;
+import de.dentrassi.hono.demo.common.LatencyHistograms;
+import de.dentrassi.hono.demo.common.PayloadHeader;
+import de.dentrassi.hono.simulator.consumer.Consumer;
+import de.dentrassi.hono.simulator.consumer.SequenceTracker;
+import io.micrometer.core.instrument.Tags;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Cost of consuming a single telemetry message, like the ones the protocol adapters of Hono forward.
+ * <p>
+ * {@code decode} is what the Hono client does for every delivery: decoding the full message, before the consumer
+ * looks at its payload. {@code inspect} is the path of {@code HONO_RAW_DELIVERIES}, which only reads the payload
+ * length and the payload header of the encoded message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({ "36", "256", "4096" })
+    public int payloadSize;
+
+    private final byte[][] messages = new byte[MESSAGES][];
+
+    private AppRuntime runtime;
+    private Consumer.Link link;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        final byte[] buffer = new byte[this.payloadSize + 1024];
+        for (int i = 0; i < MESSAGES; i++) {
+            final int length = createMessage(i).encode(buffer, 0, buffer.length);
+            this.messages[i] = Arrays.copyOf(buffer, length);
+        }
+
+        this.runtime = new AppRuntime();
+        final Consumer consumer = new Consumer(this.runtime.getRegistry(), Tags.empty(),
+                new LatencyHistograms(this.runtime, 60_000, null),
+                new SequenceTracker(this.runtime.getRegistry(), Tags.empty(), 1_000));
+        this.link = consumer.link("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.runtime.close();
+    }
+
+    private Message createMessage(final long sequence) {
+        final Message message = Proton.message();
+        message.setMessageId("msg-" + sequence);
+        message.setAddress("telemetry/DEFAULT_TENANT/device-1");
+        message.setContentType("application/octet-stream");
+        message.setCreationTime(System.currentTimeMillis());
+
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("device_id", "device-1");
+        properties.put("tenant_id", "DEFAULT_TENANT");
+        properties.put("orig_adapter", "hono-mqtt");
+        properties.put("orig_address", "telemetry");
+        properties.put("qos", 1);
+        message.setApplicationProperties(new ApplicationProperties(properties));
+
+        final Map<Symbol, Object> annotations = new HashMap<>();
+        annotations.put(Symbol.valueOf("x-opt-resource"), "telemetry/DEFAULT_TENANT/device-1");
+        message.setMessageAnnotations(new MessageAnnotations(annotations));
+
+        final Buffer payload = Buffer.buffer(new byte[this.payloadSize]);
+        PayloadHeader.write(payload, PayloadHeader.Protocol.MQTT, 0, sequence);
+        message.setBody(new Data(new Binary(payload.getBytes())));
+
+        return message;
+    }
+
+    private ReadableBuffer nextMessage() {
+        final byte[] result = this.messages[this.next];
+        this.next = (this.next + 1) % MESSAGES;
+        return ReadableBuffer.ByteBufferReader.wrap(result);
+    }
+
+    @Benchmark
+    public void decode() {
+        final Message message = Proton.message();
+        message.decode(nextMessage());
+        this.link.accept(message);
+    }
+
+    @Benchmark
+    public void inspect() {
+        this.link.accept(nextMessage());
+    }
+
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.benchmarks.mqtt;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dentrassi.hono.simulator.mqtt.vertx.MqttClientImpl;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.MqttServer;
+import io.vertx.mqtt.MqttServerOptions;
+
+/**
+ * Throughput of many connections on a single event loop, with the different ways of flushing PUBLISH messages.
+ * <p>
+ * Each operation is one tick, which publishes a burst of QoS 0 messages on every connection, like a batch of
+ * devices fired by the tick wheel. The parameters match {@code MQTT_FLUSH_BATCH}, {@code MQTT_FLUSH_DELAY_US} and
+ * {@code MQTT_FLUSH_CONSOLIDATION}, the defaults flush every message on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FlushBenchmark {
+
+    private static final int PORT = 18833;
+    private static final int CONNECTIONS = 20;
+    private static final int BURST = 50;
+    private static final int MESSAGES = CONNECTIONS * BURST;
+    private static final int WINDOW = 4 * MESSAGES;
+    private static final String TOPIC = "telemetry";
+
+    @Param({ "1", "64" })
+    public int batch;
+
+    @Param({ "0" })
+    public long delayMicros;
+
+    @Param({ "0" })
+    public int consolidation;
+
+    private final Semaphore window = new Semaphore(WINDOW);
+    private final Buffer payload = Buffer.buffer(new byte[64]);
+
+    private Vertx server;
+    private Vertx vertx;
+    private Context context;
+    private MqttClientImpl[] clients;
+
+    @Setup
+    public void setup() throws Exception {
+
+        this.server = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+
+        final CompletableFuture<Void> listening = new CompletableFuture<>();
+        MqttServer.create(this.server, new MqttServerOptions().setPort(PORT))
+                .endpointHandler(endpoint -> {
+                    endpoint.publishHandler(message -> this.window.release());
+                    endpoint.accept(false);
+                })
+                .listen(result -> {
+                    if (result.succeeded()) {
+                        listening.complete(null);
+                    } else {
+                        listening.completeExceptionally(result.cause());
+                    }
+                });
+        listening.get(10, TimeUnit.SECONDS);
+
+        this.vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        this.context = this.vertx.getOrCreateContext();
+        this.clients = new MqttClientImpl[CONNECTIONS];
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            final MqttClientImpl client = new MqttClientImpl(this.vertx,
+                    new MqttClientOptions().setClientId("benchmark-" + i))
+                            .flushBatching(this.batch, this.delayMicros)
+                            .flushConsolidation(this.consolidation);
+            this.clients[i] = client;
+
+            final CompletableFuture<Void> connected = new CompletableFuture<>();
+            this.context.runOnContext(v -> client.connect(PORT, "localhost", result -> {
+                if (result.succeeded()) {
+                    connected.complete(null);
+                } else {
+                    connected.completeExceptionally(result.cause());
+                }
+            }));
+            connected.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.vertx.close();
+        this.server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void tick() throws InterruptedException {
+        this.window.acquire(MESSAGES);
+        this.context.runOnContext(v -> {
+            for (int i = 0; i < BURST; i++) {
+                for (final MqttClientImpl client : this.clients) {
+                    client.publish(TOPIC, this.payload, MqttQoS.AT_MOST_ONCE, false, false);
+                }
+            }
+        });
+    }
+
+}
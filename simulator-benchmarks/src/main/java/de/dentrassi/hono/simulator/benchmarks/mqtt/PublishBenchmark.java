@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.benchmarks.mqtt;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dentrassi.hono.simulator.mqtt.vertx.MqttClientImpl;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.MqttServer;
+import io.vertx.mqtt.MqttServerOptions;
+
+/**
+ * Throughput of publishing QoS 0 messages with the vendored MQTT client, against a local server.
+ * <p>
+ * The client may only run ahead of the server by a fixed window of messages, so the result is the rate of
+ * messages which got delivered. {@code ownLoop} publishes from the event loop of the connection, like the devices
+ * do. {@code foreignThreads} publishes from the benchmark threads, which have to hand over to the event loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class PublishBenchmark {
+
+    private static final int PORT = 18832;
+    private static final int WINDOW = 4096;
+    private static final int BURST = 256;
+    private static final String TOPIC = "telemetry";
+
+    private final Semaphore window = new Semaphore(WINDOW);
+    private final Buffer payload = Buffer.buffer(new byte[64]);
+
+    private Vertx server;
+    private Vertx vertx;
+    private Context context;
+    private MqttClientImpl client;
+
+    @Setup
+    public void setup() throws Exception {
+
+        this.server = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+
+        final CompletableFuture<Void> listening = new CompletableFuture<>();
+        MqttServer.create(this.server, new MqttServerOptions().setPort(PORT))
+                .endpointHandler(endpoint -> {
+                    endpoint.publishHandler(message -> this.window.release());
+                    endpoint.accept(false);
+                })
+                .listen(result -> {
+                    if (result.succeeded()) {
+                        listening.complete(null);
+                    } else {
+                        listening.completeExceptionally(result.cause());
+                    }
+                });
+        listening.get(10, TimeUnit.SECONDS);
+
+        this.vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        this.context = this.vertx.getOrCreateContext();
+        this.client = new MqttClientImpl(this.vertx, new MqttClientOptions().setClientId("benchmark"));
+
+        final CompletableFuture<Void> connected = new CompletableFuture<>();
+        this.context.runOnContext(v -> this.client.connect(PORT, "localhost", result -> {
+            if (result.succeeded()) {
+                connected.complete(null);
+            } else {
+                connected.completeExceptionally(result.cause());
+            }
+        }));
+        connected.get(10, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.vertx.close();
+        this.server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void ownLoop() throws InterruptedException {
+        this.window.acquire(BURST);
+        this.context.runOnContext(v -> {
+            for (int i = 0; i < BURST; i++) {
+                this.client.publish(TOPIC, this.payload, MqttQoS.AT_MOST_ONCE, false, false);
+            }
+        });
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void foreignThreads() throws InterruptedException {
+        this.window.acquire();
+        this.client.publish(TOPIC, this.payload, MqttQoS.AT_MOST_ONCE, false, false);
+    }
+
+}
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.benchmarks.mqtt;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.simulator.mqtt.vertx.MqttClientImpl;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.MqttServer;
+import io.vertx.mqtt.MqttServerOptions;
+
+/**
+ * Stress the packet ID and in-flight handling of the vendored MQTT client, while the connection keeps dropping.
+ * <p>
+ * The server acknowledges most QoS 1 messages right away, some after a random delay (out of order) and some never.
+ * It drops the connection every 150 to 400 milliseconds. The client publishes from its own event loop and from four
+ * other threads, reconnects when the connection is lost, and expires messages which didn't get acknowledged within
+ * 50 milliseconds.
+ * <p>
+ * The harness mirrors the in-flight messages of the client and reports every disagreement. The process exits with
+ * {@code 1} if there was one, and with {@code 2} if publishing failed after the last reconnect.
+ * <p>
+ * Usage: {@code ReconnectStress [seconds] [max in-flight]}
+ */
+public class ReconnectStress {
+
+    private static final int PORT = 18831;
+    private static final int FOREIGN_THREADS = 4;
+    private static final long EXPIRY = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final String TOPIC = "telemetry";
+
+    private final Vertx vertx;
+    private final int maxInFlight;
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong serverViolations = new AtomicLong();
+    private final Map<String, AtomicLong> violations = new ConcurrentHashMap<>();
+
+    // the following fields are only accessed from the event loop of the client
+
+    private final Map<Integer, Long> inFlight = new HashMap<>();
+    private Context context;
+    private MqttClientImpl client;
+
+    private long published;
+    private long rejected;
+    private long acknowledged;
+    private long expired;
+    private long wraps;
+    private int lastId;
+
+    public ReconnectStress(final Vertx vertx, final int maxInFlight) {
+        this.vertx = vertx;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final long seconds = args.length > 0 ? Long.parseLong(args[0]) : 30;
+        final int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        final ReconnectStress stress = new ReconnectStress(Vertx.vertx(), maxInFlight);
+        System.exit(stress.run(TimeUnit.SECONDS.toMillis(seconds)));
+    }
+
+    private void violation(final String kind) {
+        this.violations.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public int run(final long duration) throws Exception {
+
+        startServer();
+
+        this.context = this.vertx.getOrCreateContext();
+        this.client = new MqttClientImpl(this.vertx, new MqttClientOptions()
+                .setClientId("stress")
+                .setMaxInflightQueue(this.maxInFlight)
+                .setCleanSession(true));
+
+        this.client.publishAcknowledgementHandler((id, sent) -> {
+            if (this.inFlight.remove(id) == null) {
+                violation("unknown ack");
+            }
+            this.acknowledged++;
+        });
+        this.client.closeHandler(v -> {
+            // clean session, nothing is left in flight
+            if (this.client.inFlight() != 0) {
+                violation("in flight after close");
+            }
+            this.inFlight.clear();
+            this.lastId = 0;
+            this.vertx.setTimer(5, t -> connect());
+        });
+
+        final Buffer payload = Buffer.buffer("hello");
+        final long end = System.currentTimeMillis() + duration;
+
+        this.context.runOnContext(v -> {
+            connect();
+            this.vertx.setPeriodic(1, t -> {
+                if (this.client.isConnected()) {
+                    for (int i = 0; i < 64; i++) {
+                        this.client.publish(TOPIC, payload, MqttQoS.AT_LEAST_ONCE, false, false, this::sent);
+                    }
+                }
+            });
+            this.vertx.setPeriodic(10, t -> expire());
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(FOREIGN_THREADS);
+        for (int i = 0; i < FOREIGN_THREADS; i++) {
+            executor.execute(() -> {
+                while (System.currentTimeMillis() < end) {
+                    if (this.client.isConnected()) {
+                        this.client.publish(TOPIC, payload, MqttQoS.AT_LEAST_ONCE, false, false, this::sent);
+                    }
+                    try {
+                        Thread.sleep(0, 20_000);
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(duration + 10_000, TimeUnit.MILLISECONDS);
+
+        final boolean working = publishAfterReconnect();
+
+        final CompletableFuture<Void> report = new CompletableFuture<>();
+        this.context.runOnContext(v -> {
+            System.out.format(
+                    "max in-flight %d: connections %d, published %d (rejected %d), acked %d, expired %d, id wraps %d%n",
+                    this.maxInFlight, this.connections.get(), this.published, this.rejected, this.acknowledged,
+                    this.expired, this.wraps);
+            report.complete(null);
+        });
+        report.get(5, TimeUnit.SECONDS);
+
+        System.out.format("server violations (id reused while the ack is pending): %d%n", this.serverViolations.get());
+        System.out.format("client violations: %s%n", new TreeMap<>(this.violations));
+
+        if (!working) {
+            System.out.println("Failed to publish after the last reconnect");
+            return 2;
+        }
+        return this.serverViolations.get() == 0 && this.violations.isEmpty() ? 0 : 1;
+    }
+
+    private void startServer() throws Exception {
+
+        final CompletableFuture<Void> listening = new CompletableFuture<>();
+
+        MqttServer.create(this.vertx, new MqttServerOptions().setPort(PORT)).endpointHandler(endpoint -> {
+
+            endpoint.accept(false);
+            this.connections.incrementAndGet();
+
+            // packet IDs, which got received, but not yet acknowledged
+            final Map<Integer, Boolean> pending = new HashMap<>();
+            final Random random = new Random();
+
+            endpoint.publishHandler(message -> {
+                final int id = message.messageId();
+                if (pending.containsKey(id)) {
+                    this.serverViolations.incrementAndGet();
+                }
+
+                final int p = random.nextInt(100);
+                if (p < 70) {
+                    endpoint.publishAcknowledge(id);
+                } else if (p < 95) {
+                    pending.put(id, Boolean.TRUE);
+                    this.vertx.setTimer(1 + random.nextInt(20), t -> {
+                        if (pending.remove(id) != null && endpoint.isConnected()) {
+                            endpoint.publishAcknowledge(id);
+                        }
+                    });
+                }
+                // else: never acknowledge, the client has to expire it
+            });
+
+            this.vertx.setTimer(150 + random.nextInt(250), t -> {
+                if (endpoint.isConnected()) {
+                    endpoint.close();
+                }
+            });
+
+        }).listen(result -> {
+            if (result.succeeded()) {
+                listening.complete(null);
+            } else {
+                listening.completeExceptionally(result.cause());
+            }
+        });
+
+        listening.get(10, TimeUnit.SECONDS);
+    }
+
+    private void connect() {
+        this.client.connect(PORT, "localhost", result -> {
+            if (result.failed()) {
+                this.vertx.setTimer(5, t -> connect());
+            }
+        });
+    }
+
+    private void sent(final AsyncResult<Integer> result) {
+        if (result.failed()) {
+            this.rejected++;
+            return;
+        }
+
+        final int id = result.result();
+        if (id <= 0 || id > 65535) {
+            violation("bad id");
+        } else if (this.inFlight.put(id, System.nanoTime()) != null) {
+            violation("duplicate id");
+        }
+
+        if (id < this.lastId) {
+            this.wraps++;
+        }
+        this.lastId = id;
+        this.published++;
+
+        if (this.client.inFlight() > this.maxInFlight) {
+            violation("over limit");
+        }
+        if (this.client.inFlight() != this.inFlight.size()) {
+            violation("count mismatch");
+        }
+    }
+
+    private void expire() {
+
+        // The client took its timestamp just before ours, and nothing else ran in between. Cutting right after
+        // the latest of our timestamps, which is older than the limit, expires the same messages on both sides.
+
+        final long limit = System.nanoTime() - EXPIRY;
+        long cutoff = Long.MIN_VALUE;
+        for (final long sent : this.inFlight.values()) {
+            if (sent < limit && sent > cutoff) {
+                cutoff = sent;
+            }
+        }
+        if (cutoff == Long.MIN_VALUE) {
+            return;
+        }
+
+        final long before = cutoff + 1;
+        final int count = this.client.expireInFlight(before);
+        final int size = this.inFlight.size();
+        this.inFlight.values().removeIf(sent -> sent < before);
+
+        if (size - this.inFlight.size() != count) {
+            violation("expiry mismatch");
+        }
+        this.expired += count;
+    }
+
+    private boolean publishAfterReconnect() throws Exception {
+
+        // with a small window, a publish may be rejected while messages are still in flight, so retry for a while
+
+        final long deadline = System.currentTimeMillis() + 5_000;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        final Handler<Void> attempt = new Handler<>() {
+            @Override
+            public void handle(final Void event) {
+                if (!ReconnectStress.this.client.isConnected()) {
+                    retry();
+                    return;
+                }
+                ReconnectStress.this.client.publish(TOPIC, Buffer.buffer("last"), MqttQoS.AT_LEAST_ONCE, false, false,
+                        sent -> {
+                            if (sent.succeeded()) {
+                                sent(sent);
+                                result.complete(sent.result());
+                            } else {
+                                retry();
+                            }
+                        });
+            }
+
+            private void retry() {
+                if (System.currentTimeMillis() < deadline) {
+                    ReconnectStress.this.vertx.setTimer(10, t -> handle(null));
+                } else {
+                    result.complete(null);
+                }
+            }
+        };
+
+        this.context.runOnContext(attempt);
+        return result.get(10, TimeUnit.SECONDS) != null;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.benchmarks.registry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.hono.service.management.credentials.CommonCredential;
+import org.eclipse.hono.service.management.credentials.PasswordCredential;
+import org.eclipse.hono.service.management.credentials.PasswordSecret;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.dentrassi.hono.demo.common.CredentialFactory;
+import de.dentrassi.hono.demo.common.CredentialFactory.HashFunction;
+import de.dentrassi.hono.demo.common.CredentialFactory.Salt;
+import io.vertx.core.json.Json;
+
+/**
+ * Cost of creating the credentials request body of a single device registration.
+ * <p>
+ * {@code baseline} is the way the registration clients created the body before the {@link CredentialFactory}: a new
+ * random salt and message digest for each device, and the Hono model objects encoded by Jackson.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialBenchmark {
+
+    private static final int DEVICES = 1024;
+    private static final String PASSWORD = "hono-secret";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String[] authIds = new String[DEVICES];
+
+    private CredentialFactory shared;
+    private CredentialFactory perDevice;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < DEVICES; i++) {
+            this.authIds[i] = "user-" + i;
+        }
+
+        final byte[] seed = "benchmark".getBytes(StandardCharsets.UTF_8);
+        this.shared = new CredentialFactory(HashFunction.SHA_512, Salt.SHARED, seed, 0);
+        this.perDevice = new CredentialFactory(HashFunction.SHA_512, Salt.PER_DEVICE, seed, 0);
+    }
+
+    private String nextAuthId() {
+        final String result = this.authIds[this.next];
+        this.next = (this.next + 1) % DEVICES;
+        return result;
+    }
+
+    @Benchmark
+    public String baseline() throws NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance("SHA-512");
+
+        final byte[] salt = new byte[4];
+        RANDOM.nextBytes(salt);
+
+        final PasswordSecret secret = new PasswordSecret();
+        secret.setSalt(Base64.getEncoder().encodeToString(salt));
+        secret.setHashFunction("sha-512");
+
+        md.update(salt);
+        final byte[] hash = md.digest(PASSWORD.getBytes(StandardCharsets.UTF_8));
+        secret.setPasswordHash(Base64.getEncoder().encodeToString(hash));
+
+        final PasswordCredential pc = new PasswordCredential();
+        pc.setAuthId(nextAuthId());
+        pc.setSecrets(Collections.singletonList(secret));
+
+        return Json.encode(new CommonCredential[] { pc });
+    }
+
+    @Benchmark
+    public String shared() {
+        return this.shared.credentialsJson(nextAuthId(), PASSWORD);
+    }
+
+    @Benchmark
+    public String perDevice() {
+        return this.perDevice.credentialsJson(nextAuthId(), PASSWORD);
+    }
+
+}
@@ -11,6 +11,10 @@
 
 package de.dentrassi.hono.demo.common;
 
+import java.util.concurrent.TimeUnit;
+
+import io.glutamate.lang.Environment;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 
@@ -20,11 +24,19 @@ public abstract class AbstractRegistration implements Registration {
 
     protected final OkHttpClient http;
     protected final String tenantId;
+    protected final CredentialFactory credentials;
 
     public AbstractRegistration(final String tenantId) {
         this.tenantId = tenantId;
+        this.credentials = CredentialFactory.fromEnv();
 
         final OkHttpClient.Builder httpBuilder = new OkHttpClient.Builder();
+
+        // keep enough connections for parallel provisioning, the default is five
+        httpBuilder.connectionPool(new ConnectionPool(
+                Environment.getAs("DEVICE_REGISTRY_MAX_IDLE_CONNECTIONS", 16, Integer::parseInt),
+                5, TimeUnit.MINUTES));
+
         if (Tls.insecure()) {
             Tls.makeOkHttpInsecure(httpBuilder);
         }
@@ -11,14 +11,26 @@
 
 package de.dentrassi.hono.demo.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.vertx.core.Future;
+import io.micrometer.core.instrument.Tags;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.vertx.core.Promise;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.impl.VertxInternal;
 import io.vertx.ext.healthchecks.HealthCheckHandler;
 import io.vertx.ext.healthchecks.Status;
 import io.vertx.ext.web.Router;
@@ -30,9 +42,41 @@ import io.vertx.micrometer.backends.BackendRegistries;
 
 public class AppRuntime implements AutoCloseable {
 
+    private static final Logger logger = LoggerFactory.getLogger(AppRuntime.class);
+
+    /**
+     * The network transport to use.
+     */
+    public enum Transport {
+        /**
+         * Use a native transport, if available, otherwise NIO.
+         */
+        AUTO,
+        NIO,
+        EPOLL,
+        KQUEUE;
+
+        public static Transport from(final String value) {
+            if (value == null || value.isBlank()) {
+                return AUTO;
+            }
+            final String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+            if (name.equals("IO_URING")) {
+                throw new IllegalArgumentException(
+                        "The io_uring transport is not supported by this version of Vert.x");
+            }
+            return valueOf(name);
+        }
+    }
+
     private final Vertx vertx;
     private final HealthCheckHandler healthCheckHandler;
+    private final Router router;
     private final MeterRegistry registry;
+    private final int eventLoopPoolSize;
+    private final String transport;
+    private final EventLoopProbe probe;
+    private final List<AutoCloseable> resources = Collections.synchronizedList(new ArrayList<>());
 
     public AppRuntime() {
         this(null);
@@ -42,7 +86,9 @@ public class AppRuntime implements AutoCloseable {
 
         final VertxOptions options = new VertxOptions();
 
-        options.setPreferNativeTransport(true);
+        final Transport requestedTransport = Environment.getAs("TRANSPORT", Transport.AUTO, Transport::from);
+
+        options.setPreferNativeTransport(requestedTransport != Transport.NIO);
         options.setMetricsOptions(
                 new MicrometerMetricsOptions()
                         .setEnabled(true)
@@ -55,28 +101,96 @@ public class AppRuntime implements AutoCloseable {
             customizer.accept(options);
         }
 
+        this.eventLoopPoolSize = options.getEventLoopPoolSize();
         this.vertx = Vertx.vertx(options);
 
-        final Router router = Router.router(this.vertx);
+        this.transport = activeTransport(this.vertx);
+        System.out.format("Transport - requested: %s, active: %s, event loops: %s%n",
+                requestedTransport.name().toLowerCase(Locale.ROOT), this.transport, this.eventLoopPoolSize);
+
+        if (requestedTransport != Transport.AUTO
+                && !requestedTransport.name().toLowerCase(Locale.ROOT).equals(this.transport)) {
+            this.vertx.close();
+            throw new IllegalStateException(String.format("Transport '%s' is not available",
+                    requestedTransport.name().toLowerCase(Locale.ROOT)));
+        }
+
+        this.router = Router.router(this.vertx);
 
         this.vertx.createHttpServer()
-                .requestHandler(router)
+                .requestHandler(this.router)
                 .listen(8081);
 
-        router.route("/metrics").handler(PrometheusScrapingHandler.create());
+        this.router.route("/metrics").handler(PrometheusScrapingHandler.create());
 
         this.healthCheckHandler = HealthCheckHandler.create(this.vertx);
-        router.get("/health").handler(this.healthCheckHandler);
+        this.router.get("/health").handler(this.healthCheckHandler);
 
         this.registry = BackendRegistries.getDefaultNow();
+
+        registerTransportMetrics();
+
+        this.probe = EventLoopProbe.fromEnv(((VertxInternal) this.vertx).getEventLoopGroup(), this.registry);
+        if (this.probe != null) {
+            register("event-loop", this.probe::check);
+        }
+    }
+
+    private static String activeTransport(final Vertx vertx) {
+        if (!vertx.isNativeTransportEnabled()) {
+            return "nio";
+        }
+        // e.g. EpollTransport -> epoll
+        return ((VertxInternal) vertx).transport().getClass().getSimpleName()
+                .replace("Transport", "")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private void registerTransportMetrics() {
+
+        this.registry.gauge("vertx_transport", Tags.of("transport", this.transport), this, r -> 1.0);
+        this.registry.gauge("vertx_event_loops", Tags.empty(), this, r -> r.eventLoopPoolSize);
+
+        int i = 0;
+        for (final EventExecutor executor : ((VertxInternal) this.vertx).getEventLoopGroup()) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                this.registry.gauge("vertx_event_loop_pending_tasks", Tags.of("loop", Integer.toString(i)),
+                        (SingleThreadEventExecutor) executor, SingleThreadEventExecutor::pendingTasks);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Close a resource together with the runtime.
+     * <p>
+     * Resources are closed in the reverse order of being added, before Vert.x is closed.
+     *
+     * @param resource The resource to close.
+     */
+    public void closeWith(final AutoCloseable resource) {
+        this.resources.add(resource);
     }
 
     @Override
     public void close() {
+        synchronized (this.resources) {
+            for (int i = this.resources.size() - 1; i >= 0; i--) {
+                try {
+                    this.resources.get(i).close();
+                } catch (final Exception e) {
+                    logger.warn("Failed to close resource", e);
+                }
+            }
+            this.resources.clear();
+        }
+        if (this.probe != null) {
+            this.probe.close();
+        }
         vertx.close();
     }
 
-    public void register(final String name, final Handler<Future<Status>> procedure) {
+    public void register(final String name, final Handler<Promise<Status>> procedure) {
         this.healthCheckHandler.register(name, procedure);
     }
 
@@ -87,4 +201,21 @@ public class AppRuntime implements AutoCloseable {
     public Vertx getVertx() {
         return this.vertx;
     }
+
+    public Router getRouter() {
+        return this.router;
+    }
+
+    public int getEventLoopPoolSize() {
+        return this.eventLoopPoolSize;
+    }
+
+    /**
+     * Get the active network transport.
+     *
+     * @return The name of the transport, e.g. {@code epoll} or {@code nio}.
+     */
+    public String getTransport() {
+        return this.transport;
+    }
 }
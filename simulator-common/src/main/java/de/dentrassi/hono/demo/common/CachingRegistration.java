@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
+import io.vertx.core.Context;
+
+/**
+ * A registration, which remembers the result of registering a device.
+ * <p>
+ * Devices which got registered successfully are not registered again, until the entry expires. Failed attempts
+ * are remembered for a shorter time, and reported to all callers during that time. Concurrent registrations of the
+ * same device are coalesced into a single call to the registry. Callers on an event loop thread don't wait for
+ * that call to complete, but fail instead. Successful registrations can be persisted to a file, so that they
+ * survive a restart of the simulator.
+ */
+public class CachingRegistration implements Registration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingRegistration.class);
+
+    private static class Entry {
+        private final long expires;
+        private final Exception failure;
+
+        Entry(final long expires, final Exception failure) {
+            this.expires = expires;
+            this.failure = failure;
+        }
+    }
+
+    private final Registration delegate;
+    private final String tenantId;
+    private final long ttl;
+    private final long negativeTtl;
+    private final BufferedWriter writer;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new caching registration.
+     *
+     * @param delegate The registration to call.
+     * @param tenantId The tenant of the devices.
+     * @param ttl The time, in milliseconds, a successful registration is remembered.
+     * @param negativeTtl The time, in milliseconds, a failed registration is remembered.
+     * @param file The file to persist successful registrations to, may be {@code null}.
+     */
+    public CachingRegistration(final Registration delegate, final String tenantId, final long ttl,
+            final long negativeTtl, final Path file) {
+
+        this.delegate = delegate;
+        this.tenantId = tenantId;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.negativeTtl = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+
+        if (file != null) {
+            load(file);
+            this.writer = createWriter(file);
+        } else {
+            this.writer = null;
+        }
+    }
+
+    public static Registration fromEnv(final Registration delegate, final String tenantId) {
+
+        final long ttl = Environment.getAs("REGISTRATION_CACHE_TTL_MS", 300_000L, Long::parseLong);
+        if (ttl <= 0) {
+            return delegate;
+        }
+
+        return new CachingRegistration(delegate, tenantId, ttl,
+                Environment.getAs("REGISTRATION_CACHE_NEGATIVE_TTL_MS", 10_000L, Long::parseLong),
+                Environment.get("REGISTRATION_CACHE_FILE")
+                        .filter(s -> !s.isBlank())
+                        .map(Paths::get)
+                        .orElse(null));
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        void call() throws Exception;
+    }
+
+    @Override
+    public void device(final String deviceId, final String username, final String password) throws Exception {
+        register(deviceId, false, () -> this.delegate.device(deviceId, username, password));
+    }
+
+    @Override
+    public void retryDevice(final String deviceId, final String username, final String password)
+            throws Exception {
+        register(deviceId, true, () -> this.delegate.device(deviceId, username, password));
+    }
+
+    @Override
+    public void gatewayDevice(final String deviceId, final String gatewayId) throws Exception {
+        register(deviceId, false, () -> this.delegate.gatewayDevice(deviceId, gatewayId));
+    }
+
+    @Override
+    public void retryGatewayDevice(final String deviceId, final String gatewayId) throws Exception {
+        register(deviceId, true, () -> this.delegate.gatewayDevice(deviceId, gatewayId));
+    }
+
+    private void register(final String deviceId, final boolean ignoreFailure, final Call call) throws Exception {
+
+        final String key = this.tenantId + "/" + deviceId;
+
+        final Entry entry = this.cache.get(key);
+        if (entry != null && entry.expires - System.nanoTime() > 0) {
+            if (entry.failure == null) {
+                logger.debug("Device already registered - key: {}", key);
+                return;
+            }
+            if (!ignoreFailure) {
+                throw new IllegalStateException("Registration failed recently - key: " + key, entry.failure);
+            }
+        }
+
+        // the first caller performs the registration, all others wait for its result
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> existing = this.inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            if (Context.isOnEventLoopThread()) {
+                throw new IllegalStateException("Registration already in progress - key: " + key);
+            }
+            try {
+                existing.get();
+                return;
+            } catch (final ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        try {
+            call.call();
+            this.cache.put(key, new Entry(System.nanoTime() + this.ttl, null));
+            persist(key);
+            future.complete(null);
+        } catch (final Exception e) {
+            this.cache.put(key, new Entry(System.nanoTime() + this.negativeTtl, e));
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, future);
+        }
+    }
+
+    private void load(final Path file) {
+
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long nanos = System.nanoTime();
+        final long ttl = TimeUnit.NANOSECONDS.toMillis(this.ttl);
+
+        try {
+            for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                final String[] toks = line.split(" ", 2);
+                if (toks.length != 2) {
+                    continue;
+                }
+                final long age = now - Long.parseLong(toks[1]);
+                if (age < ttl) {
+                    this.cache.put(toks[0], new Entry(nanos + TimeUnit.MILLISECONDS.toNanos(ttl - age), null));
+                }
+            }
+        } catch (final IOException | NumberFormatException e) {
+            logger.warn("Failed to load registration cache: {}", file, e);
+        }
+
+        logger.info("Loaded registration cache - file: {}, entries: {}", file, this.cache.size());
+    }
+
+    private static BufferedWriter createWriter(final Path file) {
+        try {
+            return Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to open registration cache file: " + file, e);
+        }
+    }
+
+    private void persist(final String key) {
+
+        if (this.writer == null) {
+            return;
+        }
+
+        synchronized (this.writer) {
+            try {
+                this.writer.write(key);
+                this.writer.write(' ');
+                this.writer.write(Long.toString(System.currentTimeMillis()));
+                this.writer.newLine();
+                this.writer.flush();
+            } catch (final IOException e) {
+                logger.warn("Failed to persist registration - key: {}", key, e);
+            }
+        }
+    }
+
+}
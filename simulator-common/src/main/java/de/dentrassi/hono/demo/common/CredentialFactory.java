@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import io.glutamate.lang.Environment;
+
+/**
+ * Create hashed password credentials for devices.
+ * <p>
+ * Simulated devices normally share the same password. With a shared salt, the hash is only computed once per
+ * password, and the encoded secret is re-used for all devices. With per device salts, the salt is derived from a
+ * seed and the authentication ID, so that the credentials of a device are stable across runs with the same seed.
+ */
+public class CredentialFactory {
+
+    private static final int SALT_LENGTH = 8;
+
+    public enum HashFunction {
+        SHA_256("SHA-256", "sha-256"),
+        SHA_512("SHA-512", "sha-512"),
+        BCRYPT(null, "bcrypt");
+
+        private final String javaAlgorithm;
+        private final String honoName;
+
+        private HashFunction(final String javaAlgorithm, final String honoName) {
+            this.javaAlgorithm = javaAlgorithm;
+            this.honoName = honoName;
+        }
+
+        public String getHonoName() {
+            return this.honoName;
+        }
+
+        public static HashFunction from(final String name) {
+            for (final HashFunction f : values()) {
+                if (f.honoName.equalsIgnoreCase(name)) {
+                    return f;
+                }
+            }
+            return HashFunction.valueOf(name.replace('-', '_').toUpperCase());
+        }
+    }
+
+    public enum Salt {
+        /**
+         * One salt for all devices.
+         */
+        SHARED,
+        /**
+         * A salt for each device, derived from the seed.
+         */
+        PER_DEVICE;
+
+        public static Salt from(final String name) {
+            return Salt.valueOf(name.replace('-', '_').toUpperCase());
+        }
+    }
+
+    private final HashFunction hashFunction;
+    private final Salt salt;
+    private final byte[] seed;
+    private final int bcryptCost;
+
+    private final ThreadLocal<MessageDigest> digest;
+    private final ThreadLocal<MessageDigest> saltDigest = ThreadLocal.withInitial(() -> digest("SHA-256"));
+
+    private final byte[] sharedSalt;
+
+    // encoded secrets by password, for the shared salt
+    private final Map<String, String> secrets = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new factory.
+     *
+     * @param hashFunction The hash function to use.
+     * @param salt The salt mode.
+     * @param seed The seed to derive the salt from.
+     * @param bcryptCost The cost factor, when using bcrypt.
+     */
+    public CredentialFactory(final HashFunction hashFunction, final Salt salt, final byte[] seed,
+            final int bcryptCost) {
+
+        this.hashFunction = hashFunction;
+        this.salt = salt;
+        this.seed = Arrays.copyOf(seed, seed.length);
+        this.bcryptCost = bcryptCost;
+
+        this.digest = hashFunction.javaAlgorithm != null
+                ? ThreadLocal.withInitial(() -> digest(hashFunction.javaAlgorithm))
+                : null;
+
+        this.sharedSalt = deriveSalt("");
+    }
+
+    public static CredentialFactory fromEnv() {
+
+        final byte[] seed = Environment.get("CREDENTIAL_SEED")
+                .map(s -> s.getBytes(StandardCharsets.UTF_8))
+                .orElseGet(() -> {
+                    final byte[] result = new byte[16];
+                    new SecureRandom().nextBytes(result);
+                    return result;
+                });
+
+        return new CredentialFactory(
+                Environment.getAs("CREDENTIAL_HASH_FUNCTION", HashFunction.SHA_512, HashFunction::from),
+                Environment.getAs("CREDENTIAL_SALT", Salt.SHARED, Salt::from),
+                seed,
+                Environment.getAs("CREDENTIAL_BCRYPT_COST", 10, Integer::parseInt));
+    }
+
+    /**
+     * Encode the password credentials of a device, for the management API.
+     *
+     * @param authId The authentication ID of the device.
+     * @param password The plain password.
+     * @return The JSON array, containing the credentials.
+     */
+    public String credentialsJson(final String authId, final String password) {
+        return new StringBuilder(256)
+                .append("[{\"type\":\"hashed-password\",\"secrets\":[")
+                .append(encodedSecret(authId, password))
+                .append("],\"auth-id\":")
+                .append(quote(authId))
+                .append("}]")
+                .toString();
+    }
+
+    /**
+     * Encode the password credentials of a device, for the legacy credentials API.
+     *
+     * @param deviceId The ID of the device.
+     * @param authId The authentication ID of the device.
+     * @param password The plain password.
+     * @return The JSON object, containing the credentials.
+     */
+    public String legacyCredentialsJson(final String deviceId, final String authId, final String password) {
+        return new StringBuilder(256)
+                .append("{\"type\":\"hashed-password\",\"secrets\":[")
+                .append(encodedSecret(authId, password))
+                .append("],\"device-id\":")
+                .append(quote(deviceId))
+                .append(",\"auth-id\":")
+                .append(quote(authId))
+                .append("}")
+                .toString();
+    }
+
+    private String encodedSecret(final String authId, final String password) {
+        switch (this.salt) {
+        case PER_DEVICE:
+            return encodeSecret(deriveSalt(authId), password);
+        default:
+            return this.secrets.computeIfAbsent(password, p -> encodeSecret(this.sharedSalt, p));
+        }
+    }
+
+    private String encodeSecret(final byte[] salt, final String password) {
+
+        // all values are either constants, base64 or bcrypt encoded, and don't require escaping
+
+        final StringBuilder sb = new StringBuilder(192)
+                .append("{\"hash-function\":\"")
+                .append(this.hashFunction.honoName)
+                .append("\",\"pwd-hash\":\"");
+
+        if (this.hashFunction == HashFunction.BCRYPT) {
+
+            // bcrypt carries its salt in the hash
+            sb.append(BCrypt.hashpw(password, BCrypt.gensalt(this.bcryptCost, seededRandom(salt))))
+                    .append("\"}");
+
+        } else {
+
+            final MessageDigest md = this.digest.get();
+            md.reset();
+            md.update(salt);
+            final byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
+
+            sb.append(Base64.getEncoder().encodeToString(hash))
+                    .append("\",\"salt\":\"")
+                    .append(Base64.getEncoder().encodeToString(salt))
+                    .append("\"}");
+
+        }
+
+        return sb.toString();
+    }
+
+    private static String quote(final String value) {
+        return new StringBuilder(value.length() + 2)
+                .append('"')
+                .append(JsonStringEncoder.getInstance().quoteAsString(value))
+                .append('"')
+                .toString();
+    }
+
+    private byte[] deriveSalt(final String authId) {
+        final MessageDigest md = this.saltDigest.get();
+        md.reset();
+        md.update(this.seed);
+        md.update((byte) ':');
+        return Arrays.copyOf(md.digest(authId.getBytes(StandardCharsets.UTF_8)), SALT_LENGTH);
+    }
+
+    private static SecureRandom seededRandom(final byte[] seed) {
+        try {
+            // seeding before the first use makes the output deterministic
+            final SecureRandom result = SecureRandom.getInstance("SHA1PRNG");
+            result.setSeed(seed);
+            return result;
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MessageDigest digest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.healthchecks.Status;
+
+/**
+ * Probe the event loops of the simulator.
+ * <p>
+ * A task gets scheduled on each event loop, and the time between it being due and it actually running is recorded,
+ * together with the number of pending tasks. A high delay means that the simulator itself is saturated, and so its
+ * measurements cannot be trusted.
+ */
+public class EventLoopProbe implements AutoCloseable {
+
+    private final class Loop implements Runnable {
+
+        private final EventExecutor executor;
+        private final Timer delay;
+        private final DistributionSummary pending;
+
+        private volatile long expected;
+
+        // the maximum delay of the current and the previous window
+        private volatile long currentMax;
+        private volatile long previousMax;
+        private long windowStart;
+
+        private Loop(final EventExecutor executor, final Tags tags) {
+            this.executor = executor;
+            this.delay = Timer.builder("simulator_eventloop_delay")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(EventLoopProbe.this.registry);
+            this.pending = DistributionSummary.builder("simulator_eventloop_pending")
+                    .tags(tags)
+                    .register(EventLoopProbe.this.registry);
+        }
+
+        private void schedule() {
+            this.expected = System.nanoTime() + EventLoopProbe.this.interval;
+            this.executor.schedule(this, EventLoopProbe.this.interval, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (EventLoopProbe.this.closed) {
+                return;
+            }
+
+            final long now = System.nanoTime();
+            final long delay = Math.max(0, now - this.expected);
+
+            this.delay.record(delay, TimeUnit.NANOSECONDS);
+            if (this.executor instanceof SingleThreadEventExecutor) {
+                this.pending.record(((SingleThreadEventExecutor) this.executor).pendingTasks());
+            }
+
+            if (now - this.windowStart >= EventLoopProbe.this.window) {
+                this.previousMax = this.currentMax;
+                this.currentMax = delay;
+                this.windowStart = now;
+            } else if (delay > this.currentMax) {
+                this.currentMax = delay;
+            }
+
+            schedule();
+        }
+
+        /**
+         * Get the recent delay, including a probe which is overdue right now.
+         */
+        private long recentDelay(final long now) {
+            return Math.max(Math.max(this.currentMax, this.previousMax), now - this.expected);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final long interval;
+    private final long window;
+    private final long threshold;
+
+    private final List<Loop> loops = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new probe.
+     *
+     * @param group The event loops to probe.
+     * @param registry The registry to report to.
+     * @param interval The probe interval, in milliseconds.
+     * @param threshold The delay, in milliseconds, above which the simulator is considered saturated.
+     * @param window The time, in milliseconds, the delay is considered recent.
+     */
+    public EventLoopProbe(final EventExecutorGroup group, final MeterRegistry registry, final long interval,
+            final long threshold, final long window) {
+
+        this.registry = registry;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+        this.window = TimeUnit.MILLISECONDS.toNanos(window);
+
+        int i = 0;
+        for (final EventExecutor executor : group) {
+            this.loops.add(new Loop(executor, Tags.of("loop", Integer.toString(i++))));
+        }
+
+        for (final Loop loop : this.loops) {
+            loop.schedule();
+        }
+    }
+
+    public static EventLoopProbe fromEnv(final EventExecutorGroup group, final MeterRegistry registry) {
+
+        final long interval = Environment.getAs("EVENTLOOP_PROBE_INTERVAL_MS", 100L, Long::parseLong);
+        if (interval <= 0) {
+            return null;
+        }
+
+        return new EventLoopProbe(group, registry, interval,
+                Environment.getAs("EVENTLOOP_DELAY_THRESHOLD_MS", 200L, Long::parseLong),
+                Environment.getAs("EVENTLOOP_HEALTH_WINDOW_MS", 10_000L, Long::parseLong));
+    }
+
+    /**
+     * Check if the event loops kept up recently.
+     *
+     * @param promise The promise to complete with the status, reporting the recent delay per event loop.
+     */
+    public void check(final Promise<Status> promise) {
+
+        final long now = System.nanoTime();
+        final JsonObject data = new JsonObject();
+
+        boolean ok = true;
+        for (int i = 0; i < this.loops.size(); i++) {
+            final long delay = this.loops.get(i).recentDelay(now);
+            data.put("loop-" + i, TimeUnit.NANOSECONDS.toMillis(Math.max(0, delay)));
+            if (delay > this.threshold) {
+                ok = false;
+            }
+        }
+
+        promise.complete(ok ? Status.OK(data) : Status.KO(data));
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+}
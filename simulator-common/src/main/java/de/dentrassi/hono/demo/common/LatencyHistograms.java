@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Interval based, lossless latency histograms.
+ * <p>
+ * Values are recorded into HdrHistogram recorders. At the end of each interval, the interval histograms get written
+ * to an HDR log file (when configured), and are made available in HDR log format at {@code /metrics/hdr}. The
+ * percentiles of the last interval are also exported as gauges, through the meter registry.
+ */
+public class LatencyHistograms implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatencyHistograms.class);
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 0.9999, 1.0 };
+
+    public class Series {
+
+        private final String name;
+        private final Recorder recorder = new Recorder(3);
+
+        private volatile Histogram last;
+
+        private Series(final String name, final String logTag, final Tags tags) {
+            this.name = logTag;
+
+            for (final double quantile : QUANTILES) {
+                Gauge.builder(name, this, s -> s.valueAt(quantile))
+                        .tags(tags.and(Tag.of("quantile", Double.toString(quantile))))
+                        .baseUnit("seconds")
+                        .register(LatencyHistograms.this.registry);
+            }
+        }
+
+        /**
+         * Record a latency value.
+         *
+         * @param nanos The latency in nanoseconds.
+         */
+        public void record(final long nanos) {
+            this.recorder.recordValue(Math.max(nanos, 0) / 1_000L);
+        }
+
+        private double valueAt(final double quantile) {
+            final Histogram histogram = this.last;
+            if (histogram == null || histogram.getTotalCount() <= 0) {
+                return Double.NaN;
+            }
+            // recorded in microseconds, reported in seconds
+            return histogram.getValueAtPercentile(quantile * 100.0) / 1_000_000.0;
+        }
+
+        private Histogram roll() {
+            final Histogram histogram = this.recorder.getIntervalHistogram();
+            histogram.setTag(this.name);
+            this.last = histogram;
+            return histogram;
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final ScheduledExecutorService executor;
+    private final HistogramLogWriter fileWriter;
+    private final long startTime = System.currentTimeMillis();
+
+    private final List<Series> series = new CopyOnWriteArrayList<>();
+
+    private volatile String lastInterval = "";
+
+    public LatencyHistograms(final AppRuntime runtime, final long interval, final File logFile) {
+        this.registry = runtime.getRegistry();
+
+        this.fileWriter = logFile != null ? createFileWriter(logFile) : null;
+        if (this.fileWriter != null) {
+            this.fileWriter.outputLogFormatVersion();
+            this.fileWriter.outputStartTime(this.startTime);
+            this.fileWriter.setBaseTime(this.startTime);
+            this.fileWriter.outputLegend();
+        }
+
+        runtime.getRouter().get("/metrics/hdr").handler(ctx -> {
+            ctx.response()
+                    .putHeader("Content-Type", "text/plain")
+                    .end(this.lastInterval);
+        });
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "latency-histograms");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleAtFixedRate(this::roll, interval, interval, TimeUnit.MILLISECONDS);
+
+        runtime.closeWith(this);
+    }
+
+    public static LatencyHistograms create(final AppRuntime runtime) {
+        return new LatencyHistograms(
+                runtime,
+                Environment.getAs("HDR_INTERVAL_MS", 10_000L, Long::parseLong),
+                Environment.get("HDR_LOG_FILE")
+                        .filter(s -> !s.isBlank())
+                        .map(File::new)
+                        .orElse(null));
+    }
+
+    private static HistogramLogWriter createFileWriter(final File file) {
+        try {
+            return new HistogramLogWriter(file);
+        } catch (final FileNotFoundException e) {
+            throw new RuntimeException("Failed to create HDR log file: " + file, e);
+        }
+    }
+
+    /**
+     * Create a new series of latency values.
+     *
+     * @param name The name of the series, this is also used as the tag in the HDR log, so it must not contain
+     *        commas or whitespace.
+     * @param tags The tags for the percentile gauges.
+     * @return The new series.
+     */
+    public Series series(final String name, final Tags tags) {
+        return series(name, name, tags);
+    }
+
+    /**
+     * Create a new series of latency values, sharing the name with other series.
+     *
+     * @param name The name of the percentile gauges.
+     * @param logTag The tag in the HDR log, this must be unique and must not contain commas or whitespace.
+     * @param tags The tags for the percentile gauges.
+     * @return The new series.
+     */
+    public Series series(final String name, final String logTag, final Tags tags) {
+        final Series result = new Series(name, logTag, tags);
+        this.series.add(result);
+        return result;
+    }
+
+    private void roll() {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(this.startTime);
+            writer.setBaseTime(this.startTime);
+            writer.outputLegend();
+
+            for (final Series s : this.series) {
+                final Histogram histogram = s.roll();
+                writer.outputIntervalHistogram(histogram);
+                if (this.fileWriter != null) {
+                    this.fileWriter.outputIntervalHistogram(histogram);
+                }
+            }
+
+            this.lastInterval = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        } catch (final Exception e) {
+            logger.warn("Failed to roll latency histograms", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        roll();
+    }
+}
@@ -22,26 +22,48 @@ public final class Payload {
 
     private static final Payload INSTANCE;
 
+    public enum Format {
+        /**
+         * The same payload for every message.
+         */
+        STATIC,
+        /**
+         * A copy of the payload for every message, starting with a {@link PayloadHeader}.
+         */
+        HEADER;
+
+        public static Format from(final String name) {
+            return Format.valueOf(name.toUpperCase());
+        }
+    }
+
     static {
         final int payloadSize = Environment.getAs("PAYLOAD_SIZE", 64, Integer::parseInt);
+        final Format format = Environment.getAs("PAYLOAD_FORMAT", Format.STATIC, Format::from);
 
-        if (payloadSize < 0) {
-            INSTANCE = new Payload("application/octet-stream", new byte[0]);
+        if (format == Format.HEADER) {
+            final byte[] buffer = new byte[Math.max(payloadSize, PayloadHeader.LENGTH)];
+            Arrays.fill(buffer, (byte) 0x42);
+            INSTANCE = new Payload("application/octet-stream", buffer, true);
+        } else if (payloadSize < 0) {
+            INSTANCE = new Payload("application/octet-stream", new byte[0], false);
         } else {
             final byte[] buffer = new byte[payloadSize];
             Arrays.fill(buffer, (byte) 0x42);
-            INSTANCE = new Payload("application/octet-stream", buffer);
+            INSTANCE = new Payload("application/octet-stream", buffer, false);
         }
     }
 
     private final String contentType;
     private final byte[] payload;
     private final Buffer buffer;
+    private final boolean header;
 
-    private Payload(final String contentType, final byte[] payload) {
+    private Payload(final String contentType, final byte[] payload, final boolean header) {
         this.contentType = contentType;
         this.payload = payload;
         this.buffer = Buffer.buffer(payload);
+        this.header = header;
     }
 
     public static Payload payload() {
@@ -64,4 +86,28 @@ public final class Payload {
         return this.buffer;
     }
 
+    public boolean hasHeader() {
+        return this.header;
+    }
+
+    /**
+     * Get the buffer for a single message.
+     * <p>
+     * Without a header, this is the shared buffer. Otherwise it is a copy, with the header written to it.
+     *
+     * @param protocol The protocol the message gets sent with.
+     * @param deviceKey The key of the device, see {@link PayloadHeader#deviceKey(String)}.
+     * @param sequence The sequence number of the message.
+     * @return The buffer to send.
+     */
+    public Buffer getBuffer(final PayloadHeader.Protocol protocol, final long deviceKey, final long sequence) {
+        if (!this.header) {
+            return this.buffer;
+        }
+
+        final Buffer result = this.buffer.copy();
+        PayloadHeader.write(result, protocol, deviceKey, sequence);
+        return result;
+    }
+
 }
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A header, which producers can put in front of the payload.
+ * <p>
+ * The header is written in big endian byte order:
+ *
+ * <pre>
+ *  0: magic, 2 bytes: 'H', 'S'
+ *  2: version, 1 byte
+ *  3: protocol, 1 byte, see {@link Protocol}
+ *  4: producer ID, 8 bytes, random per producer process
+ * 12: device key, 8 bytes, see {@link #deviceKey(String)}
+ * 20: sequence number, 8 bytes, per device
+ * 28: send timestamp, 8 bytes, nanoseconds since the epoch, see {@link #epochNanos()}
+ * </pre>
+ *
+ * The timestamp uses the wall clock, so end-to-end latencies are only meaningful when the clocks of producers and
+ * consumers are synchronized.
+ */
+public final class PayloadHeader {
+
+    public static final int LENGTH = 36;
+
+    private static final byte MAGIC_0 = 'H';
+    private static final byte MAGIC_1 = 'S';
+    private static final byte VERSION = 1;
+
+    private static final int OFFSET_PROTOCOL = 3;
+    private static final int OFFSET_PRODUCER = 4;
+    private static final int OFFSET_DEVICE = 12;
+    private static final int OFFSET_SEQUENCE = 20;
+    private static final int OFFSET_TIMESTAMP = 28;
+
+    /**
+     * The ID of this producer process.
+     */
+    public static final long PRODUCER_ID = ThreadLocalRandom.current().nextLong();
+
+    // the wall clock at startup, advanced by the monotonic clock
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    public enum Protocol {
+        UNKNOWN,
+        HTTP,
+        MQTT;
+
+        private final String tagValue = name().toLowerCase();
+
+        public String getTagValue() {
+            return this.tagValue;
+        }
+
+        public static Protocol fromCode(final int code) {
+            final Protocol[] values = values();
+            return code >= 0 && code < values.length ? values[code] : UNKNOWN;
+        }
+    }
+
+    private PayloadHeader() {
+    }
+
+    /**
+     * Get the current time, in nanoseconds since the epoch.
+     * <p>
+     * This has the resolution of {@link System#nanoTime()}, but the value is aligned with the wall clock at startup.
+     *
+     * @return The current time.
+     */
+    public static long epochNanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANOS);
+    }
+
+    /**
+     * Create a key for a device ID, using the 64 bit FNV-1a hash.
+     *
+     * @param deviceId The device ID.
+     * @return The key.
+     */
+    public static long deviceKey(final String deviceId) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : deviceId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Write the header to the start of a buffer.
+     *
+     * @param buffer The buffer to write to, at least {@link #LENGTH} bytes long.
+     * @param protocol The protocol the message gets sent with.
+     * @param deviceKey The key of the device.
+     * @param sequence The sequence number of the message.
+     */
+    public static void write(final Buffer buffer, final Protocol protocol, final long deviceKey,
+            final long sequence) {
+        buffer.setByte(0, MAGIC_0);
+        buffer.setByte(1, MAGIC_1);
+        buffer.setByte(2, VERSION);
+        buffer.setByte(OFFSET_PROTOCOL, (byte) protocol.ordinal());
+        buffer.setLong(OFFSET_PRODUCER, PRODUCER_ID);
+        buffer.setLong(OFFSET_DEVICE, deviceKey);
+        buffer.setLong(OFFSET_SEQUENCE, sequence);
+        buffer.setLong(OFFSET_TIMESTAMP, epochNanos());
+    }
+
+    /**
+     * Check if data starts with a header.
+     *
+     * @param data The array containing the data.
+     * @param offset The offset of the data in the array.
+     * @param length The length of the data.
+     * @return {@code true} if the data starts with a header, {@code false} otherwise.
+     */
+    public static boolean isPresent(final byte[] data, final int offset, final int length) {
+        return length >= LENGTH
+                && data[offset] == MAGIC_0
+                && data[offset + 1] == MAGIC_1
+                && data[offset + 2] == VERSION;
+    }
+
+    public static Protocol protocol(final byte[] data, final int offset) {
+        return Protocol.fromCode(data[offset + OFFSET_PROTOCOL] & 0xFF);
+    }
+
+    public static long producerId(final byte[] data, final int offset) {
+        return getLong(data, offset + OFFSET_PRODUCER);
+    }
+
+    public static long deviceKey(final byte[] data, final int offset) {
+        return getLong(data, offset + OFFSET_DEVICE);
+    }
+
+    public static long sequence(final byte[] data, final int offset) {
+        return getLong(data, offset + OFFSET_SEQUENCE);
+    }
+
+    public static long timestamp(final byte[] data, final int offset) {
+        return getLong(data, offset + OFFSET_TIMESTAMP);
+    }
+
+    private static long getLong(final byte[] data, final int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (data[offset + i] & 0xFF);
+        }
+        return result;
+    }
+}
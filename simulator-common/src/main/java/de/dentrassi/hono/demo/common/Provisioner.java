@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Provision a range of devices, before the simulation starts.
+ * <p>
+ * Devices are provisioned by a bounded number of workers, in parallel. Failed attempts are retried, with an
+ * exponential backoff. When a state file is configured, the progress is persisted, so that a restarted run only
+ * provisions the devices which are still missing. Each key gets its own file, derived from the configured one, so
+ * that several ranges can be provisioned by the same run.
+ */
+public class Provisioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(Provisioner.class);
+
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(10);
+
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * Provision a single device.
+         *
+         * @param index The index of the device.
+         * @throws Exception If provisioning failed. The attempt may be retried.
+         */
+        void provision(int index) throws Exception;
+    }
+
+    private final int parallelism;
+    private final int maxRetries;
+    private final long backoff;
+    private final Path stateFile;
+
+    private final Counter success;
+    private final Counter failure;
+    private final Counter retries;
+    private final Timer duration;
+    private final AtomicLong remaining;
+
+    public Provisioner(final MeterRegistry registry, final Tags commonTags, final int parallelism,
+            final int maxRetries, final long backoff, final Path stateFile) {
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be greater than zero");
+        }
+
+        this.parallelism = parallelism;
+        this.maxRetries = maxRetries;
+        this.backoff = Math.max(backoff, 1);
+        this.stateFile = stateFile;
+
+        this.success = registry.counter("provisioning_devices", commonTags.and("result", "success"));
+        this.failure = registry.counter("provisioning_devices", commonTags.and("result", "failure"));
+        this.retries = registry.counter("provisioning_retries", commonTags);
+        this.duration = registry.timer("provisioning_duration", commonTags);
+        this.remaining = registry.gauge("provisioning_remaining", commonTags, new AtomicLong());
+    }
+
+    /**
+     * Create a new provisioner, if pre-provisioning is enabled.
+     *
+     * @param registry The registry to register the meters with.
+     * @param commonTags The tags to use.
+     * @return The provisioner, or nothing if pre-provisioning is disabled.
+     */
+    public static Optional<Provisioner> fromEnv(final MeterRegistry registry, final Tags commonTags) {
+
+        if (!Environment.getAs("PRE_PROVISION", false, Boolean::parseBoolean)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new Provisioner(
+                registry, commonTags,
+                Environment.getAs("PROVISION_PARALLELISM", 16, Integer::parseInt),
+                Environment.getAs("PROVISION_MAX_RETRIES", 5, Integer::parseInt),
+                Environment.getAs("PROVISION_BACKOFF_MS", 100L, Long::parseLong),
+                Environment.get("PROVISION_STATE_FILE")
+                        .filter(s -> !s.isBlank())
+                        .map(Paths::get)
+                        .orElse(null)));
+    }
+
+    /**
+     * Provision a range of devices, and wait for the result.
+     *
+     * @param key The key of the set of devices, e.g. tenant and device ID prefix. Progress which was persisted for
+     *        a different key will be ignored.
+     * @param from The first index, inclusive.
+     * @param to The last index, exclusive.
+     * @param task The task provisioning a single device.
+     * @return The number of devices which failed to be provisioned.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public int provision(final String key, final int from, final int to, final Task task)
+            throws InterruptedException {
+
+        final BitSet done = load(key);
+        final int total = Math.max(to - from, 0);
+        final int skipped = done.get(from, Math.max(from, to)).cardinality();
+
+        this.remaining.set(total - skipped);
+
+        System.out.format("Provisioning devices - total: %s, already done: %s, parallelism: %s%n",
+                total, skipped, this.parallelism);
+
+        final AtomicInteger next = new AtomicInteger(from);
+        final AtomicInteger failed = new AtomicInteger();
+        final long start = System.nanoTime();
+
+        final ScheduledExecutorService checkpoint = Executors.newSingleThreadScheduledExecutor();
+        checkpoint.scheduleWithFixedDelay(() -> {
+            store(key, done);
+            logProgress(total, start);
+        }, 5, 5, TimeUnit.SECONDS);
+
+        final ExecutorService workers = Executors.newFixedThreadPool(this.parallelism);
+        try {
+            for (int i = 0; i < this.parallelism; i++) {
+                workers.execute(() -> {
+                    int idx;
+                    while ((idx = next.getAndIncrement()) < to) {
+                        if (isDone(done, idx)) {
+                            continue;
+                        }
+                        if (provisionWithRetries(idx, task)) {
+                            markDone(done, idx);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        this.remaining.decrementAndGet();
+                    }
+                });
+            }
+
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } finally {
+            workers.shutdownNow();
+            checkpoint.shutdownNow();
+            checkpoint.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            store(key, done);
+        }
+
+        logProgress(total, start);
+        System.out.format("Provisioning complete - failed: %s%n", failed.get());
+
+        return failed.get();
+    }
+
+    /**
+     * Provision a range of devices, and fail if any of them could not be provisioned.
+     * <p>
+     * Devices which are missing in the registry would only fail to authenticate later on, which looks like an issue
+     * of the protocol adapter.
+     *
+     * @param key The key of the set of devices.
+     * @param from The first index, inclusive.
+     * @param to The last index, exclusive.
+     * @param task The task provisioning a single device.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws IllegalStateException If at least one device could not be provisioned.
+     * @see #provision(String, int, int, Task)
+     */
+    public void provisionAll(final String key, final int from, final int to, final Task task)
+            throws InterruptedException {
+
+        final int failed = provision(key, from, to, task);
+        if (failed > 0) {
+            logger.error("Failed to provision devices - key: {}, failed: {}, total: {}", key, failed,
+                    Math.max(to - from, 0));
+            throw new IllegalStateException(String.format("Failed to provision %s devices of '%s'", failed, key));
+        }
+    }
+
+    private boolean provisionWithRetries(final int idx, final Task task) {
+
+        long delay = this.backoff;
+
+        for (int attempt = 0;; attempt++) {
+
+            final long start = System.nanoTime();
+            try {
+                task.provision(idx);
+                this.duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                this.success.increment();
+                return true;
+            } catch (final Exception e) {
+                if (attempt >= this.maxRetries) {
+                    logger.warn("Failed to provision device - index: {}", idx, e);
+                    this.failure.increment();
+                    return false;
+                }
+                logger.debug("Failed to provision device, retrying - index: {}, attempt: {}", idx, attempt, e);
+            }
+
+            this.retries.increment();
+
+            try {
+                // full jitter, so that failing workers don't retry in lock step
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay) + 1);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.failure.increment();
+                return false;
+            }
+
+            delay = Math.min(delay * 2, MAX_BACKOFF);
+        }
+    }
+
+    private void logProgress(final int total, final long start) {
+        final long done = total - this.remaining.get();
+        final double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.format("Provisioning - %s/%s devices, %.1f devices/s%n", done, total,
+                seconds > 0 ? done / seconds : 0.0);
+    }
+
+    private static boolean isDone(final BitSet done, final int idx) {
+        synchronized (done) {
+            return done.get(idx);
+        }
+    }
+
+    private static void markDone(final BitSet done, final int idx) {
+        synchronized (done) {
+            done.set(idx);
+        }
+    }
+
+    /**
+     * Get the state file of a key.
+     *
+     * @param key The key of the set of devices.
+     * @return The configured state file, with a suffix derived from the key.
+     */
+    private Path stateFile(final String key) {
+        return this.stateFile.resolveSibling(
+                String.format("%s.%08x", this.stateFile.getFileName(), key.hashCode()));
+    }
+
+    private BitSet load(final String key) {
+
+        if (this.stateFile == null) {
+            return new BitSet();
+        }
+
+        final Path stateFile = stateFile(key);
+        if (!Files.isRegularFile(stateFile)) {
+            return new BitSet();
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(stateFile))) {
+            final String storedKey = in.readUTF();
+            if (!storedKey.equals(key)) {
+                logger.warn("Ignoring provisioning state of a different set of devices - expected: {}, actual: {}",
+                        key, storedKey);
+                return new BitSet();
+            }
+            return BitSet.valueOf(in.readAllBytes());
+        } catch (final IOException e) {
+            logger.warn("Failed to load provisioning state: {}", stateFile, e);
+            return new BitSet();
+        }
+    }
+
+    private void store(final String key, final BitSet done) {
+
+        if (this.stateFile == null) {
+            return;
+        }
+
+        final byte[] data;
+        synchronized (done) {
+            data = done.toByteArray();
+        }
+
+        // write to a temporary file first, so that we never leave a partial state behind
+
+        final Path stateFile = stateFile(key);
+        final Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeUTF(key);
+                out.write(data);
+            }
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            logger.warn("Failed to store provisioning state: {}", stateFile, e);
+        }
+    }
+
+}
@@ -29,6 +29,37 @@ public interface Registration {
 
     void device(String deviceId, String username, String password) throws Exception;
 
+    /**
+     * Register a device, even if registering it failed recently.
+     * <p>
+     * This is intended for callers which implement their own retry logic.
+     */
+    default void retryDevice(final String deviceId, final String username, final String password)
+            throws Exception {
+        device(deviceId, username, password);
+    }
+
+    /**
+     * Register a device, which connects through a gateway.
+     * <p>
+     * The device will not have any credentials, but is allowed to be used by the gateway.
+     *
+     * @param deviceId The ID of the device.
+     * @param gatewayId The ID of the gateway, acting on behalf of the device.
+     */
+    default void gatewayDevice(final String deviceId, final String gatewayId) throws Exception {
+        throw new UnsupportedOperationException("Gateway devices are not supported by this registry");
+    }
+
+    /**
+     * Register a device, which connects through a gateway, even if registering it failed recently.
+     * <p>
+     * This is intended for callers which implement their own retry logic.
+     */
+    default void retryGatewayDevice(final String deviceId, final String gatewayId) throws Exception {
+        gatewayDevice(deviceId, gatewayId);
+    }
+
     public static Optional<Registration> fromEnv() {
         return fromEnv(Tenant.TENANT);
     }
@@ -62,12 +93,18 @@ public interface Registration {
 
         System.out.format("Device Registry - Version: %s, URL: %s%n", version, devRegUrl);
 
+        final Registration registration;
+
         switch (version) {
         case V1:
-            return of(new RegistrationV1(tenantId, token, parse(devRegUrl)));
+            registration = new RegistrationV1(tenantId, token, parse(devRegUrl));
+            break;
         default:
-            return of(new RegistrationLegacy(tenantId, parse(devRegUrl)));
+            registration = new RegistrationLegacy(tenantId, parse(devRegUrl));
+            break;
         }
 
+        return of(CachingRegistration.fromEnv(registration, tenantId));
+
     }
 }
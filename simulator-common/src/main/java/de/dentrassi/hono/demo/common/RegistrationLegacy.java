@@ -102,17 +102,12 @@ public class RegistrationLegacy extends AbstractRegistration {
 
             } else {
 
-                final AddCredentials add = new AddCredentials();
-                add.setAuthId(username);
-                add.setDeviceId(deviceId);
-                add.setType("hashed-password");
-                add.getSecrets().add(AddCredentials.sha512(password));
-
                 try (final Response newUser = this.http.newCall(new Request.Builder()
                         .url(
                                 this.credentialsUrl
                                         .resolve(this.tenantId))
-                        .post(RequestBody.create(MT_JSON, encode(add)))
+                        .post(RequestBody.create(MT_JSON,
+                                this.credentials.legacyCredentialsJson(deviceId, username, password)))
                         .build()).execute()) {
 
                     logger.debug("Credentials URL - get: {}", newUser.request().url());
@@ -11,15 +11,10 @@
 
 package de.dentrassi.hono.demo.common;
 
-import static io.vertx.core.json.Json.encode;
-
-import java.util.Collections;
-
-import org.eclipse.hono.service.management.credentials.CommonCredential;
-import org.eclipse.hono.service.management.credentials.PasswordCredential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.google.common.net.HttpHeaders;
 
 import okhttp3.HttpUrl;
@@ -111,10 +106,6 @@ public class RegistrationV1 extends AbstractRegistration {
             }
         }
 
-        final PasswordCredential pc = new PasswordCredential();
-        pc.setAuthId(username);
-        pc.setSecrets(Collections.singletonList(AddCredentials.sha512(password)));
-
         try (Response putCredentials = this.http.newCall(new Request.Builder()
                 .url(
                         this.credentialsUrl
@@ -123,7 +114,7 @@ public class RegistrationV1 extends AbstractRegistration {
                                 .addPathSegment(deviceId)
                                 .build())
                 .addHeader(HttpHeaders.AUTHORIZATION, this.authzString)
-                .put(RequestBody.create(MT_JSON, encode(new CommonCredential[] {pc})))
+                .put(RequestBody.create(MT_JSON, this.credentials.credentialsJson(username, password)))
                 .build())
                 .execute()) {
 
@@ -142,4 +133,57 @@ public class RegistrationV1 extends AbstractRegistration {
 
     }
 
+    @Override
+    public void gatewayDevice(final String deviceId, final String gatewayId) throws Exception {
+
+        final HttpUrl url = this.registrationUrl
+                .newBuilder()
+                .addPathSegment(this.tenantId)
+                .addPathSegment(deviceId)
+                .build();
+
+        final String body = new StringBuilder()
+                .append("{\"via\":[\"")
+                .append(JsonStringEncoder.getInstance().quoteAsString(gatewayId))
+                .append("\"]}")
+                .toString();
+
+        try (final Response newDevice = this.http.newCall(new Request.Builder()
+                .url(url)
+                .addHeader(HttpHeaders.AUTHORIZATION, this.authzString)
+                .post(RequestBody.create(MT_JSON, body))
+                .build()).execute()) {
+
+            if (newDevice.isSuccessful()) {
+                logger.info("Registered device: {} via {}", deviceId, gatewayId);
+                return;
+            }
+
+            if (newDevice.code() != 409) {
+                logger.info("Registration URL - post: {}", newDevice.request().url());
+                throw new RuntimeException(
+                        "Unable to register device: " + deviceId + " -> " + newDevice.code() + ": "
+                                + newDevice.message());
+            }
+        }
+
+        // already exists, make sure it can be used by the gateway
+
+        try (final Response updateDevice = this.http.newCall(new Request.Builder()
+                .url(url)
+                .addHeader(HttpHeaders.AUTHORIZATION, this.authzString)
+                .put(RequestBody.create(MT_JSON, body))
+                .build()).execute()) {
+
+            if (!updateDevice.isSuccessful()) {
+                logger.info("Registration URL - put: {}", updateDevice.request().url());
+                throw new RuntimeException(
+                        "Unable to update device: " + deviceId + " -> " + updateDevice.code() + ": "
+                                + updateDevice.message());
+            }
+            logger.info("Updated device: {} via {}", deviceId, gatewayId);
+        }
+
+    }
+
 }
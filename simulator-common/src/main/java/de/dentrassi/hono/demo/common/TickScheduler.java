@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+/**
+ * Tick scheduler for a large number of simulated devices.
+ * <p>
+ * Instead of arming one Vert.x timer per device and tick, this uses one hashed timing wheel per event loop, with
+ * one slot per millisecond. Each wheel is driven by a single periodic timer on its own context and fires all tasks
+ * which are due, as a batch. Tasks are pinned to a wheel, and so to an event loop, when they get registered.
+ */
+public class TickScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TickScheduler.class);
+
+    /**
+     * A task, registered with the scheduler.
+     * <p>
+     * A task can be re-scheduled as often as required, without allocating a new handle. Methods should be called
+     * from the context of the task, calls from other threads will be dispatched to it.
+     */
+    public interface Task {
+
+        /**
+         * Schedule the task to run once, after the delay.
+         *
+         * @param delay The delay in milliseconds.
+         */
+        void schedule(long delay);
+
+        /**
+         * Schedule the task to run once, at a point in time.
+         *
+         * @param deadline The deadline, as returned by {@link TickScheduler#now()}.
+         */
+        void scheduleAt(long deadline);
+
+        void cancel();
+
+        /**
+         * Get the time the task was last scheduled for.
+         *
+         * @return The deadline, as returned by {@link TickScheduler#now()}.
+         */
+        long deadline();
+
+        /**
+         * Get the context the task runs on.
+         *
+         * @return The context of the event loop this task is pinned to.
+         */
+        Context context();
+    }
+
+    private final Vertx vertx;
+    private final Wheel[] wheels;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public TickScheduler(final Vertx vertx, final int numberOfWheels, final int wheelSize,
+            final MeterRegistry registry, final Tags commonTags) {
+
+        Objects.requireNonNull(vertx);
+
+        if (numberOfWheels <= 0) {
+            throw new IllegalArgumentException("Number of wheels must be greater than zero");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("Wheel size must be greater than zero");
+        }
+
+        this.vertx = vertx;
+
+        // round up to the next power of two, for cheap slot lookups
+
+        final int size = Integer.highestOneBit(wheelSize) == wheelSize
+                ? wheelSize
+                : Integer.highestOneBit(wheelSize) << 1;
+
+        this.wheels = new Wheel[numberOfWheels];
+        for (int i = 0; i < numberOfWheels; i++) {
+            // called from a non-Vert.x thread, this will hand out event loops in a round robin fashion
+            final Context context = vertx.getOrCreateContext();
+            this.wheels[i] = new Wheel(context, size, registry, commonTags.and("loop", Integer.toString(i)));
+        }
+
+        for (final Wheel wheel : this.wheels) {
+            wheel.start();
+        }
+
+        logger.info("Tick scheduler - wheels: {}, slots: {}", numberOfWheels, size);
+    }
+
+    public static TickScheduler create(final AppRuntime runtime, final Tags commonTags) {
+        return new TickScheduler(
+                runtime.getVertx(),
+                runtime.getEventLoopPoolSize(),
+                Environment.getAs("TICK_WHEEL_SIZE", 4096, Integer::parseInt),
+                runtime.getRegistry(),
+                commonTags);
+    }
+
+    /**
+     * Get the current time of the scheduler.
+     * <p>
+     * This is a monotonic clock, it can only be used for comparing values, and has no relation to the wall clock.
+     *
+     * @return The current time in milliseconds.
+     */
+    public static long now() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /**
+     * Register a new task.
+     * <p>
+     * The task will be pinned to one of the event loops, in a round robin fashion. The task is not scheduled yet.
+     *
+     * @param runnable The code to run when the task is due.
+     * @return The new task handle.
+     */
+    public Task register(final Runnable runnable) {
+        Objects.requireNonNull(runnable);
+
+        final int idx = Math.floorMod(this.next.getAndIncrement(), this.wheels.length);
+        return new TaskImpl(this.wheels[idx], runnable);
+    }
+
+    /**
+     * Register a new task, on the same event loop as an existing task.
+     *
+     * @param runnable The code to run when the task is due.
+     * @param sibling The task to share the event loop with, must be registered with this scheduler.
+     * @return The new task handle.
+     */
+    public Task register(final Runnable runnable, final Task sibling) {
+        Objects.requireNonNull(runnable);
+
+        if (!(sibling instanceof TaskImpl)) {
+            throw new IllegalArgumentException("Task was not registered with a tick scheduler");
+        }
+        return new TaskImpl(((TaskImpl) sibling).wheel, runnable);
+    }
+
+    @Override
+    public void close() {
+        for (final Wheel wheel : this.wheels) {
+            wheel.stop();
+        }
+    }
+
+    private static class TaskImpl implements Task {
+
+        private final Wheel wheel;
+        private final Runnable runnable;
+
+        private long deadline;
+        private boolean scheduled;
+
+        private TaskImpl prev;
+        private TaskImpl next;
+
+        TaskImpl(final Wheel wheel, final Runnable runnable) {
+            this.wheel = wheel;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void schedule(final long delay) {
+            scheduleAt(now() + Math.max(delay, 0));
+        }
+
+        @Override
+        public void scheduleAt(final long deadline) {
+            if (this.wheel.isCurrent()) {
+                this.wheel.schedule(this, deadline);
+            } else {
+                this.wheel.context.runOnContext(v -> this.wheel.schedule(this, deadline));
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (this.wheel.isCurrent()) {
+                this.wheel.cancel(this);
+            } else {
+                this.wheel.context.runOnContext(v -> this.wheel.cancel(this));
+            }
+        }
+
+        @Override
+        public long deadline() {
+            return this.deadline;
+        }
+
+        @Override
+        public Context context() {
+            return this.wheel.context;
+        }
+    }
+
+    private class Wheel {
+
+        private final Context context;
+        private final TaskImpl[] slots;
+        private final int mask;
+
+        private final Timer lateness;
+        private final DistributionSummary occupancy;
+
+        // the batch of due tasks, re-used across ticks
+        private final ArrayList<TaskImpl> batch = new ArrayList<>();
+
+        // the last tick which was processed
+        private long current;
+
+        private int pending;
+
+        private long timer = -1;
+
+        Wheel(final Context context, final int size, final MeterRegistry registry, final Tags tags) {
+            this.context = context;
+            this.slots = new TaskImpl[size];
+            this.mask = size - 1;
+
+            this.lateness = registry.timer("ticks_lateness", tags);
+            this.occupancy = registry.summary("ticks_bucket_occupancy", tags);
+            registry.gauge("ticks_pending", tags, this, w -> w.pending);
+        }
+
+        void start() {
+            this.context.runOnContext(v -> {
+                this.current = now();
+                this.timer = vertx.setPeriodic(1, this::tick);
+            });
+        }
+
+        void stop() {
+            this.context.runOnContext(v -> {
+                if (this.timer >= 0) {
+                    vertx.cancelTimer(this.timer);
+                    this.timer = -1;
+                }
+            });
+        }
+
+        boolean isCurrent() {
+            return Vertx.currentContext() == this.context;
+        }
+
+        void schedule(final TaskImpl task, long deadline) {
+            if (task.scheduled) {
+                unlink(task);
+            }
+
+            if (deadline <= this.current) {
+                // the slot for this deadline was already processed, use the next one
+                deadline = this.current + 1;
+            }
+
+            task.deadline = deadline;
+            task.scheduled = true;
+
+            final int idx = (int) (deadline & this.mask);
+            final TaskImpl head = this.slots[idx];
+            task.prev = null;
+            task.next = head;
+            if (head != null) {
+                head.prev = task;
+            }
+            this.slots[idx] = task;
+
+            this.pending++;
+        }
+
+        void cancel(final TaskImpl task) {
+            if (task.scheduled) {
+                unlink(task);
+            }
+        }
+
+        private void unlink(final TaskImpl task) {
+            if (task.prev != null) {
+                task.prev.next = task.next;
+            } else {
+                this.slots[(int) (task.deadline & this.mask)] = task.next;
+            }
+            if (task.next != null) {
+                task.next.prev = task.prev;
+            }
+
+            task.prev = null;
+            task.next = null;
+            task.scheduled = false;
+
+            this.pending--;
+        }
+
+        private void tick(final Long timerId) {
+            final long now = now();
+
+            // catch up with all slots we missed since the last run
+
+            while (this.current < now) {
+                this.current++;
+                collect((int) (this.current & this.mask));
+            }
+
+            if (this.batch.isEmpty()) {
+                return;
+            }
+
+            // fire the batch, tasks may re-schedule themselves
+
+            for (final TaskImpl task : this.batch) {
+                this.lateness.record(now - task.deadline, TimeUnit.MILLISECONDS);
+                try {
+                    task.runnable.run();
+                } catch (final Exception e) {
+                    logger.warn("Failed to run task", e);
+                }
+            }
+
+            this.batch.clear();
+        }
+
+        private void collect(final int idx) {
+            TaskImpl task = this.slots[idx];
+            if (task == null) {
+                return;
+            }
+
+            int entries = 0;
+            while (task != null) {
+                final TaskImpl next = task.next;
+                entries++;
+                // tasks more than one round ahead share the slot, but are not due yet
+                if (task.deadline <= this.current) {
+                    unlink(task);
+                    this.batch.add(task);
+                }
+                task = next;
+            }
+
+            this.occupancy.record(entries);
+        }
+    }
+
+}
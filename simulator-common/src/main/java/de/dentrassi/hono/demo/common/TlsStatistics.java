@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.demo.common;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Statistics of TLS handshakes, and control over TLS session resumption.
+ * <p>
+ * Clients which share the same SSL context also share the TLS session cache, so a reconnecting device may resume a
+ * session of an earlier connection. Resumption can be disabled, in which case all sessions get invalidated right
+ * after the handshake, and every connection has to go through a full handshake.
+ * <p>
+ * A resumed session is detected by its ID, which is the ID of an earlier session. TLS 1.3 resumes sessions using
+ * pre-shared keys, and every connection gets a new ID. The JDK doesn't tell if the key was accepted, so those
+ * handshakes are recorded with resumption being {@code unknown}, and are not part of the resumption ratio.
+ */
+public class TlsStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(TlsStatistics.class);
+
+    private static final String UNKNOWN = "unknown";
+
+    // the default size of the JDK session cache
+    private static final int DEFAULT_CACHE_SIZE = 20_480;
+
+    private final MeterRegistry registry;
+    private final Tags commonTags;
+
+    private final boolean resumption;
+    private final int cacheSize;
+    private final int timeout;
+
+    private final Timer full;
+    private final Timer resumed;
+    private final Timer unknown;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumptions = new AtomicLong();
+
+    // IDs of the sessions we have seen, at most as many as the session cache can hold
+    private final Map<ByteBuffer, Boolean> sessions;
+
+    // session contexts we already configured
+    private final Set<SSLSessionContext> contexts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create new statistics.
+     *
+     * @param registry The registry to register the meters with.
+     * @param commonTags The tags to use.
+     * @param resumption Whether sessions may be resumed.
+     * @param cacheSize The size of the session cache, zero or less to keep the default.
+     * @param timeout The timeout of cached sessions in seconds, zero or less to keep the default.
+     */
+    public TlsStatistics(final MeterRegistry registry, final Tags commonTags, final boolean resumption,
+            final int cacheSize, final int timeout) {
+
+        this.registry = registry;
+        this.commonTags = commonTags;
+
+        this.resumption = resumption;
+        this.cacheSize = cacheSize;
+        this.timeout = timeout;
+
+        this.full = connectTimer(registry, commonTags, "false");
+        this.resumed = connectTimer(registry, commonTags, "true");
+        this.unknown = connectTimer(registry, commonTags, UNKNOWN);
+
+        final int maxSessions = cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > maxSessions;
+            }
+        };
+
+        registry.gauge("tls_resumption_ratio", commonTags, this, TlsStatistics::resumptionRatio);
+    }
+
+    private static Timer connectTimer(final MeterRegistry registry, final Tags commonTags, final String resumed) {
+        return Timer.builder("tls_connect_duration")
+                .description("Time to set up a TLS connection, including the TCP connect")
+                .tags(commonTags.and("resumed", resumed))
+                .register(registry);
+    }
+
+    public static TlsStatistics fromEnv(final MeterRegistry registry, final Tags commonTags) {
+        return new TlsStatistics(registry, commonTags,
+                Environment.getAs("TLS_SESSION_RESUMPTION", true, Boolean::parseBoolean),
+                Environment.getAs("TLS_SESSION_CACHE_SIZE", 0, Integer::parseInt),
+                Environment.getAs("TLS_SESSION_TIMEOUT", 0, Integer::parseInt));
+    }
+
+    public boolean isResumption() {
+        return this.resumption;
+    }
+
+    /**
+     * Record a completed handshake.
+     *
+     * @param session The session of the new connection.
+     * @param duration The time it took to set up the connection, including the TCP connect, in nanoseconds. The
+     *        clients only report when a connection is established, so the handshake can't be timed on its own.
+     */
+    public void handshake(final SSLSession session, final long duration) {
+
+        if (session == null) {
+            return;
+        }
+
+        configure(session.getSessionContext());
+
+        final String resumed = resumed(session);
+
+        switch (resumed) {
+        case "true":
+            this.handshakes.incrementAndGet();
+            this.resumptions.incrementAndGet();
+            this.resumed.record(duration, TimeUnit.NANOSECONDS);
+            break;
+        case "false":
+            this.handshakes.incrementAndGet();
+            this.full.record(duration, TimeUnit.NANOSECONDS);
+            break;
+        default:
+            this.unknown.record(duration, TimeUnit.NANOSECONDS);
+            break;
+        }
+
+        this.registry.counter("tls_handshakes", this.commonTags.and(
+                "resumed", resumed,
+                "protocol", session.getProtocol(),
+                "cipher", session.getCipherSuite()))
+                .increment();
+
+        if (!this.resumption) {
+            // prevent the session from being used by the next connection
+            session.invalidate();
+        }
+    }
+
+    /**
+     * Check if a session was resumed.
+     * <p>
+     * Up to TLS 1.2, the server confirms resuming a session by sending back its ID. So a session which got resumed
+     * has the ID of a session we saw before.
+     *
+     * @param session The session of the new connection.
+     * @return {@code "true"} or {@code "false"}, or {@code "unknown"} if the session doesn't tell.
+     */
+    private String resumed(final SSLSession session) {
+
+        final byte[] id = session.getId();
+        if (id == null || id.length == 0 || "TLSv1.3".equals(session.getProtocol())) {
+            return UNKNOWN;
+        }
+
+        synchronized (this.sessions) {
+            return Boolean.toString(this.sessions.put(ByteBuffer.wrap(id), Boolean.TRUE) != null);
+        }
+    }
+
+    private void configure(final SSLSessionContext context) {
+
+        if (context == null || !this.contexts.add(context)) {
+            return;
+        }
+
+        if (this.cacheSize > 0) {
+            context.setSessionCacheSize(this.cacheSize);
+        }
+        if (this.timeout > 0) {
+            context.setSessionTimeout(this.timeout);
+        }
+
+        logger.info("TLS session cache - resumption: {}, size: {}, timeout: {}s",
+                this.resumption, context.getSessionCacheSize(), context.getSessionTimeout());
+    }
+
+    private double resumptionRatio() {
+        final long total = this.handshakes.get();
+        if (total <= 0) {
+            return Double.NaN;
+        }
+        return (double) this.resumptions.get() / (double) total;
+    }
+
+}
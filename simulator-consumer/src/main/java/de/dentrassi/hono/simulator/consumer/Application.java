@@ -78,8 +78,6 @@ public class Application {
 
         final var runtime = new AppRuntime();
 
-        System.out.println("Vertx Native: " + runtime.getVertx().isNativeTransportEnabled());
-
         System.out.format("OpenSSL - available: %s -> %s%n", OpenSsl.isAvailable(), OpenSsl.versionString());
         System.out.println("Key Manager: " + OpenSsl.supportsKeyManagerFactory());
         System.out.println("Host name validation: " + OpenSsl.supportsHostnameValidation());
@@ -11,35 +11,146 @@
 
 package de.dentrassi.hono.simulator.consumer;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.codec.ReadableBuffer;
 import org.apache.qpid.proton.message.Message;
-import io.micrometer.core.instrument.Counter;
 
+import de.dentrassi.hono.demo.common.LatencyHistograms;
+import de.dentrassi.hono.demo.common.PayloadHeader;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Process received messages.
+ * <p>
+ * Messages are received through one or more links, possibly on different threads. Counters are kept in
+ * {@link LongAdder}s, so that links don't contend on a single counter.
+ */
 public class Consumer {
 
-    private final Counter messages;
-    private final Counter payload;
+    /**
+     * A single receiver link.
+     */
+    public class Link implements java.util.function.Consumer<Message> {
 
-    public Consumer(final Counter messages, final Counter payload) {
-        this.messages = messages;
-        this.payload = payload;
-    }
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder payload = new LongAdder();
+
+        private final MessageInspector inspector = new MessageInspector();
+
+        private Link(final String id) {
+            final Tags tags = Consumer.this.commonTags.and("link", id);
+            counter("messages.received.link", tags, this.messages);
+            counter("payload.received.link", tags, this.payload);
+        }
+
+        @Override
+        public void accept(final Message msg) {
+            received();
+
+            final Section body = msg.getBody();
+            if (body instanceof Data) {
+                final Binary value = ((Data) body).getValue();
+                if (value != null) {
+                    payload(value.getLength());
+                    inspectHeader(value.getArray(), value.getArrayOffset(), value.getLength());
+                }
+            }
+        }
 
-    public void handleMessage(final Message msg) {
-        this.messages.increment();
+        /**
+         * Consume an encoded message, without decoding it.
+         * <p>
+         * This must not be called concurrently for the same link.
+         *
+         * @param encoded The encoded message, the position of the buffer is not changed.
+         */
+        public void accept(final ReadableBuffer encoded) {
+            received();
 
-        final Section body = msg.getBody();
-        if (body instanceof Data) {
-            final Binary value = ((Data) body).getValue();
-            if (value != null) {
-                this.payload.increment(value.getLength());
+            if (this.inspector.inspect(encoded)) {
+                payload(this.inspector.getPayloadLength());
+                if (this.inspector.hasHeader()) {
+                    inspectHeader(this.inspector.getHeaderArray(), this.inspector.getHeaderOffset(),
+                            PayloadHeader.LENGTH);
+                }
             }
         }
+
+        private void received() {
+            this.messages.increment();
+            Consumer.this.messages.increment();
+        }
+
+        private void payload(final int length) {
+            this.payload.add(length);
+            Consumer.this.payload.add(length);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Tags commonTags;
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder payload = new LongAdder();
+
+    // end-to-end latency, by protocol
+    private final LatencyHistograms.Series[] latency;
+
+    private final SequenceTracker sequences;
+
+    public Consumer(final MeterRegistry registry, final Tags commonTags, final LatencyHistograms histograms,
+            final SequenceTracker sequences) {
+        this.registry = registry;
+        this.commonTags = commonTags;
+        this.sequences = sequences;
+
+        counter("messages.received", commonTags, this.messages);
+        counter("payload.received", commonTags, this.payload);
+
+        final PayloadHeader.Protocol[] protocols = PayloadHeader.Protocol.values();
+        this.latency = new LatencyHistograms.Series[protocols.length];
+        for (final PayloadHeader.Protocol protocol : protocols) {
+            this.latency[protocol.ordinal()] = histograms.series("messages_latency_e2e",
+                    "messages_latency_e2e_" + protocol.getTagValue(),
+                    commonTags.and("protocol", protocol.getTagValue()));
+        }
+    }
+
+    private void counter(final String name, final Tags tags, final LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::doubleValue)
+                .tags(tags)
+                .register(this.registry);
+    }
+
+    /**
+     * Create a new link.
+     *
+     * @param id The ID of the link, used for tagging its metrics.
+     * @return The new link, consuming messages.
+     */
+    public Link link(final String id) {
+        return new Link(id);
+    }
+
+    private void inspectHeader(final byte[] data, final int offset, final int length) {
+        if (PayloadHeader.isPresent(data, offset, length)) {
+            final long latency = PayloadHeader.epochNanos() - PayloadHeader.timestamp(data, offset);
+            this.latency[PayloadHeader.protocol(data, offset).ordinal()].record(latency);
+
+            this.sequences.received(
+                    PayloadHeader.producerId(data, offset),
+                    PayloadHeader.deviceKey(data, offset),
+                    PayloadHeader.sequence(data, offset));
+        }
     }
 
     public double count() {
-        return messages.count();
+        return this.messages.sum();
     }
 }
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.Locale;
+
+import org.eclipse.hono.client.MessageConsumer;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.vertx.core.Vertx;
+
+/**
+ * Manage the credit of a single receiver link.
+ * <p>
+ * The controller keeps the credit of the link between half and the full size of its window. Credit is granted in
+ * batches, once half of the window has been consumed. Depending on the policy, the window is re-evaluated
+ * periodically:
+ * <ul>
+ * <li>{@link Policy#FIXED} keeps the initial window.</li>
+ * <li>{@link Policy#WINDOWED} sizes the window to the number of messages processed during the target time, based
+ * on the observed processing rate.</li>
+ * <li>{@link Policy#AIMD} increases the window additively when the link ran out of credit, and halves it when
+ * the event loop of the link falls behind.</li>
+ * </ul>
+ * <p>
+ * All methods must be called on the context of the link.
+ */
+public class CreditController {
+
+    public enum Policy {
+        /**
+         * Let the client replenish credit after each message, using the initial credits as prefetch.
+         */
+        PREFETCH,
+        FIXED,
+        WINDOWED,
+        AIMD;
+
+        public static Policy from(final String value) {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public static final class Settings {
+
+        private final Policy policy;
+        private final int window;
+        private final int minWindow;
+        private final int maxWindow;
+        private final long periodMillis;
+        private final long targetMillis;
+        private final long lagThresholdMillis;
+        private final int step;
+
+        private Settings(final Policy policy, final int window, final int minWindow, final int maxWindow,
+                final long periodMillis, final long targetMillis, final long lagThresholdMillis, final int step) {
+            this.policy = policy;
+            this.minWindow = Math.max(1, minWindow);
+            this.maxWindow = Math.max(this.minWindow, maxWindow);
+            this.window = Math.min(this.maxWindow, Math.max(this.minWindow, window));
+            this.periodMillis = periodMillis;
+            this.targetMillis = targetMillis;
+            this.lagThresholdMillis = lagThresholdMillis;
+            this.step = Math.max(1, step);
+        }
+
+        public static Settings fromEnv() {
+            return new Settings(
+                    Environment.getAs("HONO_CREDIT_POLICY", Policy.PREFETCH, Policy::from),
+                    Environment.getAs("HONO_CREDIT_WINDOW", 1_000, Integer::parseInt),
+                    Environment.getAs("HONO_CREDIT_MIN_WINDOW", 10, Integer::parseInt),
+                    Environment.getAs("HONO_CREDIT_MAX_WINDOW", 10_000, Integer::parseInt),
+                    Environment.getAs("HONO_CREDIT_PERIOD_MS", 1_000L, Long::parseLong),
+                    Environment.getAs("HONO_CREDIT_TARGET_MS", 100L, Long::parseLong),
+                    Environment.getAs("HONO_CREDIT_LAG_THRESHOLD_MS", 50L, Long::parseLong),
+                    Environment.getAs("HONO_CREDIT_STEP", 100, Integer::parseInt));
+        }
+
+        public Policy getPolicy() {
+            return this.policy;
+        }
+
+        /**
+         * Test if credit is managed by the application.
+         *
+         * @return {@code true} if the client must not replenish credit by itself.
+         */
+        public boolean isManual() {
+            return this.policy != Policy.PREFETCH;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, window: %s [%s..%s], period: %sms, target: %sms, lag threshold: %sms, step: %s",
+                    this.policy, this.window, this.minWindow, this.maxWindow, this.periodMillis, this.targetMillis,
+                    this.lagThresholdMillis, this.step);
+        }
+    }
+
+    private final Vertx vertx;
+    private final Settings settings;
+
+    private final Counter drained;
+    private final Counter replenished;
+    private final Counter granted;
+
+    private MessageConsumer consumer;
+
+    // read by the gauges, from a different thread
+    private volatile int credit;
+    private volatile int window;
+
+    private long processed;
+    private boolean starved;
+    private double rate;
+
+    private long lastEvaluation;
+
+    private long timer = -1;
+
+    public CreditController(final Vertx vertx, final Settings settings, final MeterRegistry registry,
+            final Tags tags) {
+
+        this.vertx = vertx;
+        this.settings = settings;
+        this.window = settings.window;
+
+        Gauge.builder("link.credit", this, c -> c.credit)
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("link.credit.window", this, c -> c.window)
+                .tags(tags)
+                .register(registry);
+
+        this.drained = Counter.builder("link.credit.drained")
+                .description("Number of times the link ran out of credit")
+                .tags(tags)
+                .register(registry);
+        this.replenished = Counter.builder("link.credit.replenished")
+                .description("Number of times credit was granted to the link")
+                .tags(tags)
+                .register(registry);
+        this.granted = Counter.builder("link.credit.granted")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Start managing the credit of a link.
+     * <p>
+     * When the link gets re-created, this must be called again with the new consumer. The new link starts without
+     * credit, the window is kept.
+     *
+     * @param consumer The consumer, which must have been created with a prefetch of zero.
+     */
+    public void start(final MessageConsumer consumer) {
+        this.consumer = consumer;
+        this.credit = 0;
+        this.lastEvaluation = System.nanoTime();
+
+        replenish();
+
+        if (this.settings.policy != Policy.FIXED && this.timer < 0) {
+            this.timer = this.vertx.setPeriodic(this.settings.periodMillis, timer -> evaluate());
+        }
+    }
+
+    /**
+     * Record a message which was processed.
+     */
+    public void received() {
+        this.processed++;
+
+        final int credit = this.credit - 1;
+        this.credit = credit;
+
+        if (credit <= 0) {
+            this.drained.increment();
+            this.starved = true;
+        }
+
+        if (credit <= this.window / 2) {
+            replenish();
+        }
+    }
+
+    private void replenish() {
+        final int grant = this.window - this.credit;
+        if (grant <= 0 || this.consumer == null) {
+            return;
+        }
+
+        this.credit += grant;
+        this.consumer.flow(grant);
+
+        this.replenished.increment();
+        this.granted.increment(grant);
+    }
+
+    private void evaluate() {
+        final long now = System.nanoTime();
+        final long elapsed = now - this.lastEvaluation;
+        this.lastEvaluation = now;
+
+        // the timer runs on the event loop of the link, so being late means the loop is busy
+        final long lagMillis = elapsed / 1_000_000L - this.settings.periodMillis;
+
+        final double rate = this.processed * 1_000_000_000.0 / Math.max(1, elapsed);
+        this.rate = this.rate > 0 ? (this.rate + rate) / 2.0 : rate;
+
+        switch (this.settings.policy) {
+        case WINDOWED:
+            this.window = clamp((long) Math.ceil(this.rate * this.settings.targetMillis / 1_000.0));
+            break;
+        case AIMD:
+            if (lagMillis > this.settings.lagThresholdMillis) {
+                this.window = clamp(this.window / 2);
+            } else if (this.starved) {
+                this.window = clamp((long) this.window + this.settings.step);
+            }
+            break;
+        default:
+            break;
+        }
+
+        this.processed = 0;
+        this.starved = false;
+
+        if (this.credit <= this.window / 2) {
+            replenish();
+        }
+    }
+
+    private int clamp(final long window) {
+        return (int) Math.min(this.settings.maxWindow, Math.max(this.settings.minWindow, window));
+    }
+
+}
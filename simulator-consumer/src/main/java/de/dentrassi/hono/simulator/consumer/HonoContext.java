@@ -13,7 +13,10 @@ package de.dentrassi.hono.simulator.consumer;
 
 import static io.glutamate.lang.Environment.is;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+
 import org.eclipse.hono.client.HonoClient;
 import org.eclipse.hono.client.MessageConsumer;
 import org.eclipse.hono.config.ClientConfigProperties;
@@ -21,11 +24,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.dentrassi.hono.demo.common.AppRuntime;
+import de.dentrassi.hono.demo.common.LatencyHistograms;
 import de.dentrassi.hono.demo.common.Tls;
 import de.dentrassi.hono.demo.common.Type;
 import io.glutamate.lang.Environment;
 import io.micrometer.core.instrument.Tags;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.net.OpenSSLEngineOptions;
@@ -39,13 +45,19 @@ public class HonoContext implements AutoCloseable {
 
     private final AppRuntime runtime;
 
-    private final HonoClient honoClient;
+    private final List<HonoClient> honoClients;
+    private final int linksPerConnection;
     private final String tenant;
 
     private final Consumer consumer;
+    private final Tags commonTags;
+    private final CreditController.Settings credits;
 
     private final Type type;
 
+    // receive encoded messages, instead of decoded ones
+    private final boolean raw = Environment.getAs("HONO_RAW_DELIVERIES", false, Boolean::parseBoolean);
+
     private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
 
     public HonoContext(final String tenant, final String host, final int port, final String user, final String password,
@@ -73,19 +85,40 @@ public class HonoContext implements AutoCloseable {
 
         Environment.getAs("HONO_INITIAL_CREDITS", Integer::parseInt).ifPresent(config::setInitialCredits);
 
-        this.honoClient = HonoClient.newClient(this.runtime.getVertx(), config);
+        this.credits = CreditController.Settings.fromEnv();
+        System.out.format("Credit policy: %s%n", this.credits);
+        if (this.credits.isManual()) {
+            // a prefetch of zero disables replenishing credit by the client
+            config.setInitialCredits(0);
+        }
+
+        final int connections = Environment.getAs("HONO_CONNECTIONS", 1, Integer::parseInt);
+        this.linksPerConnection = Environment.getAs("HONO_LINKS_PER_CONNECTION", 1, Integer::parseInt);
+        System.out.format("Connections: %s, links per connection: %s%n", connections, this.linksPerConnection);
+        System.out.format("Raw deliveries: %s%n", this.raw);
+
+        this.honoClients = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            if (this.raw) {
+                this.honoClients.add(new RawHonoClient(this.runtime.getVertx(), config));
+            } else {
+                this.honoClients.add(HonoClient.newClient(this.runtime.getVertx(), config));
+            }
+        }
 
         runtime.register("client-connected", future -> {
-            isConnected(this.honoClient, future);
+            isConnected(this.honoClients, future);
         });
 
-        final Tags commonTags = Tags
+        this.commonTags = Tags
                 .of("tenant", this.tenant)
                 .and(type.asTag());
 
         this.consumer = new Consumer(
-                this.runtime.getRegistry().counter("messages.received", commonTags),
-                this.runtime.getRegistry().counter("payload.received", commonTags));
+                this.runtime.getRegistry(),
+                this.commonTags,
+                LatencyHistograms.create(this.runtime),
+                SequenceTracker.fromEnv(this.runtime.getRegistry(), this.commonTags));
     }
 
     private ConsumerProvider getConsumerProvider(final HonoClient connectedClient) {
@@ -101,32 +134,84 @@ public class HonoContext implements AutoCloseable {
         return provider;
     }
 
-    private static void isConnected(final HonoClient honoClient, final Handler<AsyncResult<Status>> handler) {
-        honoClient.isConnected()
+    private static void isConnected(final List<HonoClient> honoClients,
+            final Handler<AsyncResult<Status>> handler) {
+
+        @SuppressWarnings("rawtypes")
+        final List<Future> connected = new ArrayList<>(honoClients.size());
+        for (final HonoClient honoClient : honoClients) {
+            connected.add(honoClient.isConnected());
+        }
+
+        CompositeFuture.all(connected)
                 .map(v -> Status.OK())
                 .setHandler(handler);
     }
 
     @Override
     public void close() {
-        this.honoClient.shutdown(done -> {
-        });
+        for (final HonoClient honoClient : this.honoClients) {
+            honoClient.shutdown(done -> {
+            });
+        }
         this.runtime.close();
     }
 
     public Future<?> connect() {
 
-        return this.honoClient.connect(
-                getOptions(),
-                this::onDisconnect)
+        @SuppressWarnings("rawtypes")
+        final List<Future> connected = new ArrayList<>(this.honoClients.size());
 
-                .compose(connectedClient -> {
-                    logger.info("connected to Hono");
-                    return createConsumer(connectedClient);
-                });
+        for (int i = 0; i < this.honoClients.size(); i++) {
+
+            final int connection = i;
+            final HonoClient honoClient = this.honoClients.get(i);
+            final Future<CompositeFuture> result = Future.future();
+
+            // called from the main thread, this hands out the event loops in a round robin fashion
+            final Context context = this.runtime.getVertx().getOrCreateContext();
+
+            context.runOnContext(v -> {
+                honoClient.connect(
+                        getOptions(),
+                        this::onDisconnect)
+
+                        .compose(connectedClient -> {
+                            logger.info("connected to Hono - connection: {}", connection);
+                            return createConsumers(connectedClient, connection);
+                        })
+                        .setHandler(result);
+            });
+
+            connected.add(result);
+        }
+
+        return CompositeFuture.all(connected);
 
     }
 
+    private Future<CompositeFuture> createConsumers(final HonoClient connectedClient, final int connection) {
+
+        @SuppressWarnings("rawtypes")
+        final List<Future> consumers = new ArrayList<>(this.linksPerConnection);
+        for (int i = 0; i < this.linksPerConnection; i++) {
+            final String id = connection + "-" + i;
+            final Consumer.Link link = this.consumer.link(id);
+
+            if (this.credits.isManual()) {
+                final CreditController controller = new CreditController(this.runtime.getVertx(), this.credits,
+                        this.runtime.getRegistry(), this.commonTags.and("link", id));
+                consumers.add(createConsumer(connectedClient, link, controller::received, controller::start));
+            } else {
+                consumers.add(createConsumer(connectedClient, link, () -> {
+                }, messageConsumer -> {
+                }));
+            }
+        }
+
+        return CompositeFuture.all(consumers);
+    }
+
     static private ProtonClientOptions getOptions() {
         final ProtonClientOptions options = new ProtonClientOptions();
 
@@ -153,22 +238,46 @@ public class HonoContext implements AutoCloseable {
 
     }
 
-    private Future<MessageConsumer> createConsumer(final HonoClient connectedClient) {
-
-        final var provider = getConsumerProvider(connectedClient);
-
-        return provider.createConsumer(this.tenant,
-                this.consumer::handleMessage, closeHandler -> {
-
-                    logger.info("close handler of consumer is called");
-
-                    System.err.println("Lost Consumer link, restarting …");
-                    System.exit(-1);
+    /**
+     * Create a consumer, and re-create it when the link gets closed.
+     *
+     * @param received Called after each message.
+     * @param opened Called with each consumer which got created, including the re-created ones.
+     */
+    private Future<MessageConsumer> createConsumer(final HonoClient connectedClient, final Consumer.Link link,
+            final Runnable received, final Handler<MessageConsumer> opened) {
+
+        final Handler<Void> closeHandler = closed -> {
+
+            logger.info("close handler of consumer is called");
+
+            System.err.println("Lost Consumer link, restarting …");
+            System.exit(-1);
+
+            this.runtime.getVertx().setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
+                logger.info("attempting to re-open the Consumer link ...");
+                createConsumer(connectedClient, link, received, opened);
+            });
+        };
+
+        final Future<MessageConsumer> result;
+        if (this.raw) {
+            final String address = (this.type == Type.EVENT ? "event/" : "telemetry/") + this.tenant;
+            result = ((RawHonoClient) connectedClient).createRawConsumer(address, encoded -> {
+                link.accept(encoded);
+                received.run();
+            }, closeHandler);
+        } else {
+            result = getConsumerProvider(connectedClient).createConsumer(this.tenant, msg -> {
+                link.accept(msg);
+                received.run();
+            }, closeHandler);
+        }
 
-                    this.runtime.getVertx().setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
-                        logger.info("attempting to re-open the Consumer link ...");
-                        createConsumer(connectedClient);
-                    });
+        return result
+                .map(messageConsumer -> {
+                    opened.handle(messageConsumer);
+                    return messageConsumer;
                 });
     }
 
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.simulator.consumer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.qpid.proton.codec.ReadableBuffer;
+
+import de.dentrassi.hono.demo.common.PayloadHeader;
+
+/**
+ * Inspect an encoded AMQP message, without decoding it.
+ * <p>
+ * The sections of the message are skipped by their encoded size, only the {@code Data} sections of the body are
+ * located. The payload is not copied, unless the buffer isn't backed by an array, in which case only the
+ * {@link PayloadHeader} is copied.
+ * <p>
+ * An instance keeps the result of the last inspection, and must not be shared between threads.
+ */
+public class MessageInspector {
+
+    private static final int DESCRIBED = 0x00;
+    private static final int SMALL_ULONG = 0x53;
+    private static final int ULONG = 0x80;
+    private static final int ULONG_0 = 0x44;
+    private static final int SYM8 = 0xa3;
+    private static final int SYM32 = 0xb3;
+    private static final int VBIN8 = 0xa0;
+    private static final int VBIN32 = 0xb0;
+
+    private static final long DATA = 0x75L;
+    private static final byte[] DATA_SYMBOL = "amqp:data:binary".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] header = new byte[PayloadHeader.LENGTH];
+
+    private ReadableBuffer buffer;
+    private int position;
+
+    private int payloadLength;
+    private byte[] headerArray;
+    private int headerOffset;
+
+    /**
+     * Inspect an encoded message.
+     * <p>
+     * The position of the buffer is not changed.
+     *
+     * @param buffer The encoded message, from its position to its limit.
+     * @return {@code true} if the message could be parsed, {@code false} otherwise.
+     */
+    public boolean inspect(final ReadableBuffer buffer) {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.payloadLength = 0;
+        this.headerArray = null;
+
+        try {
+            final int limit = buffer.limit();
+            while (this.position < limit) {
+                if (u8() != DESCRIBED) {
+                    return false;
+                }
+                if (isDataDescriptor()) {
+                    data();
+                } else {
+                    skip();
+                }
+            }
+            return this.position == limit;
+        } catch (final IndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Get the total length of the {@code Data} sections of the last inspected message.
+     *
+     * @return The length of the payload.
+     */
+    public int getPayloadLength() {
+        return this.payloadLength;
+    }
+
+    /**
+     * Test if the last inspected message starts with a {@link PayloadHeader}.
+     * <p>
+     * If it does, the header can be read from {@link #getHeaderArray()} at {@link #getHeaderOffset()}.
+     *
+     * @return {@code true} if the message has a header.
+     */
+    public boolean hasHeader() {
+        return this.headerArray != null;
+    }
+
+    public byte[] getHeaderArray() {
+        return this.headerArray;
+    }
+
+    public int getHeaderOffset() {
+        return this.headerOffset;
+    }
+
+    private void data() {
+        final int length;
+        switch (u8()) {
+        case VBIN8:
+            length = u8();
+            break;
+        case VBIN32:
+            length = u32();
+            break;
+        default:
+            throw new IndexOutOfBoundsException("Data section must be binary");
+        }
+
+        final int start = this.position;
+        advance(length);
+
+        if (this.payloadLength == 0) {
+            locateHeader(start, length);
+        }
+        this.payloadLength += length;
+    }
+
+    private void locateHeader(final int start, final int length) {
+        if (length < PayloadHeader.LENGTH) {
+            return;
+        }
+
+        final byte[] array;
+        final int offset;
+        if (this.buffer.hasArray()) {
+            array = this.buffer.array();
+            offset = this.buffer.arrayOffset() + start;
+        } else {
+            for (int i = 0; i < this.header.length; i++) {
+                this.header[i] = this.buffer.get(start + i);
+            }
+            array = this.header;
+            offset = 0;
+        }
+
+        if (PayloadHeader.isPresent(array, offset, PayloadHeader.LENGTH)) {
+            this.headerArray = array;
+            this.headerOffset = offset;
+        }
+    }
+
+    /**
+     * Read a section descriptor.
+     *
+     * @return {@code true} if it describes a {@code Data} section.
+     */
+    private boolean isDataDescriptor() {
+        final int constructor = u8();
+        switch (constructor) {
+        case SMALL_ULONG:
+            return u8() == DATA;
+        case ULONG:
+            return u64() == DATA;
+        case ULONG_0:
+            return false;
+        case SYM8:
+            return symbol(u8());
+        case SYM32:
+            return symbol(u32());
+        default:
+            skipValue(constructor);
+            return false;
+        }
+    }
+
+    private boolean symbol(final int length) {
+        final int start = this.position;
+        advance(length);
+
+        if (length != DATA_SYMBOL.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(start + i) != DATA_SYMBOL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skip() {
+        skipValue(u8());
+    }
+
+    /**
+     * Skip a value, using the width implied by the subcategory of its constructor.
+     */
+    private void skipValue(final int constructor) {
+        if (constructor == DESCRIBED) {
+            skip();
+            skip();
+            return;
+        }
+
+        switch (constructor >>> 4) {
+        case 0x4:
+            break;
+        case 0x5:
+            advance(1);
+            break;
+        case 0x6:
+            advance(2);
+            break;
+        case 0x7:
+            advance(4);
+            break;
+        case 0x8:
+            advance(8);
+            break;
+        case 0x9:
+            advance(16);
+            break;
+        case 0xa:
+        case 0xc:
+        case 0xe:
+            advance(u8());
+            break;
+        case 0xb:
+        case 0xd:
+        case 0xf:
+            advance(u32());
+            break;
+        default:
+            throw new IndexOutOfBoundsException(String.format("Invalid constructor: 0x%02x", constructor));
+        }
+    }
+
+    private void advance(final int length) {
+        if (length < 0 || length > this.buffer.limit() - this.position) {
+            throw new IndexOutOfBoundsException("Value exceeds message");
+        }
+        this.position += length;
+    }
+
+    private int u8() {
+        if (this.position >= this.buffer.limit()) {
+            throw new IndexOutOfBoundsException("Unexpected end of message");
+        }
+        return this.buffer.get(this.position++) & 0xFF;
+    }
+
+    private int u32() {
+        return u8() << 24 | u8() << 16 | u8() << 8 | u8();
+    }
+
+    private long u64() {
+        return (long) u32() << 32 | u32() & 0xFFFFFFFFL;
+    }
+
+}
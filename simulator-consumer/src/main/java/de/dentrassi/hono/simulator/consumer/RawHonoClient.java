@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.simulator.consumer;
+
+import java.net.HttpURLConnection;
+
+import org.eclipse.hono.client.MessageConsumer;
+import org.eclipse.hono.client.ServerErrorException;
+import org.eclipse.hono.client.impl.HonoClientImpl;
+import org.eclipse.hono.config.ClientConfigProperties;
+import org.eclipse.hono.util.HonoProtonHelper;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.proton.ProtonQoS;
+import io.vertx.proton.ProtonReceiver;
+import io.vertx.proton.impl.RawProtonReceiver;
+
+/**
+ * A Hono client, which can create consumers receiving the encoded messages.
+ * <p>
+ * The consumers share the connection of the client, but attach their own receiver, which skips decoding the
+ * messages. See {@link RawProtonReceiver}.
+ */
+public class RawHonoClient extends HonoClientImpl {
+
+    private final Vertx vertx;
+    private final ClientConfigProperties config;
+
+    public RawHonoClient(final Vertx vertx, final ClientConfigProperties config) {
+        super(vertx, config);
+        this.vertx = vertx;
+        this.config = config;
+    }
+
+    /**
+     * Create a consumer, receiving encoded messages.
+     *
+     * @param address The address to receive from, e.g. {@code telemetry/DEFAULT_TENANT}.
+     * @param handler The handler of the encoded messages.
+     * @param closeHandler Called when the link got closed by the peer.
+     * @return The future consumer, completed once the link is open.
+     */
+    public Future<MessageConsumer> createRawConsumer(final String address,
+            final RawProtonReceiver.DeliveryHandler handler, final Handler<Void> closeHandler) {
+
+        return executeOrRunOnContext(result -> {
+
+            final Context context = Vertx.currentContext();
+            final RawProtonReceiver receiver = RawProtonReceiver.wrap(getConnection().createReceiver(address),
+                    handler);
+
+            receiver.setQoS(ProtonQoS.AT_LEAST_ONCE);
+            receiver.setPrefetch(this.config.getInitialCredits());
+
+            receiver.openHandler(open -> {
+                if (open.failed()) {
+                    result.tryFail(open.cause());
+                } else if (HonoProtonHelper.isLinkEstablished(receiver)) {
+                    result.tryComplete(new RawConsumer(context, receiver));
+                } else {
+                    result.tryFail(new ServerErrorException(HttpURLConnection.HTTP_UNAVAILABLE,
+                            "Peer did not create terminus for source: " + address));
+                }
+            });
+
+            final Handler<AsyncResult<ProtonReceiver>> closed = remote -> {
+                HonoProtonHelper.closeAndFree(context, receiver, v -> {
+                });
+                closeHandler.handle(null);
+            };
+            HonoProtonHelper.setDetachHandler(receiver, closed);
+            HonoProtonHelper.setCloseHandler(receiver, closed);
+
+            receiver.open();
+
+            this.vertx.setTimer(this.config.getLinkEstablishmentTimeout(), timer -> {
+                if (result.tryFail(new ServerErrorException(HttpURLConnection.HTTP_UNAVAILABLE,
+                        "Timeout opening receiver: " + address))) {
+                    HonoProtonHelper.closeAndFree(context, receiver, v -> {
+                    });
+                }
+            });
+        });
+    }
+
+    private static class RawConsumer implements MessageConsumer {
+
+        private final Context context;
+        private final RawProtonReceiver receiver;
+
+        RawConsumer(final Context context, final RawProtonReceiver receiver) {
+            this.context = context;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void flow(final int credits) {
+            this.receiver.flow(credits);
+        }
+
+        @Override
+        public int getRemainingCredit() {
+            return this.receiver.getCredit() - this.receiver.getQueued();
+        }
+
+        @Override
+        public void close(final Handler<AsyncResult<Void>> closeHandler) {
+            HonoProtonHelper.closeAndFree(this.context, this.receiver, v -> {
+                if (closeHandler != null) {
+                    closeHandler.handle(Future.succeededFuture());
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package de.dentrassi.hono.simulator.consumer;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Track the sequence numbers of devices, to detect lost, duplicate and reordered messages.
+ * <p>
+ * For each device, the highest sequence number and a bitmap of the preceding 32 sequence numbers is kept. A
+ * sequence number is considered lost, once it moves out of that window without having been received. A message
+ * which arrives after moving out of the window is counted as reordered, but was already counted as lost. Tracking
+ * starts with the first message received from a device, older messages are reported as duplicates.
+ * <p>
+ * The state is kept in open addressing hash maps of primitive arrays, using 16 bytes per device plus the empty
+ * slots of the map. The maps are striped, so that messages can be tracked from multiple threads. Once the maximum
+ * number of devices is reached, new devices are not tracked.
+ */
+public class SequenceTracker {
+
+    private static final int WINDOW = Integer.SIZE;
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final class Stripe {
+
+        private final int maxSize;
+
+        private long[] keys;
+        private int[] highest;
+        private int[] window;
+        private int size;
+
+        private Stripe(final int maxSize) {
+            this.maxSize = maxSize;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(final int capacity) {
+            this.keys = new long[capacity];
+            this.highest = new int[capacity];
+            this.window = new int[capacity];
+        }
+
+        /**
+         * Find the slot of a key, or the empty slot for it.
+         */
+        private int slot(final long key) {
+            final int mask = this.keys.length - 1;
+            int i = mix(key) & mask;
+            while (this.keys[i] != 0 && this.keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /**
+         * Insert a new key.
+         *
+         * @return The slot of the key, or {@code -1} if the stripe is full.
+         */
+        private int insert(final long key, final int sequence) {
+            if (this.size >= this.maxSize) {
+                return -1;
+            }
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+                grow();
+            }
+
+            final int i = slot(key);
+            this.keys[i] = key;
+            this.highest[i] = sequence;
+            // nothing before the first message is known, consider it received
+            this.window[i] = -1;
+            this.size++;
+            return i;
+        }
+
+        private void grow() {
+            final long[] oldKeys = this.keys;
+            final int[] oldHighest = this.highest;
+            final int[] oldWindow = this.window;
+
+            allocate(oldKeys.length * 2);
+
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != 0) {
+                    final int i = slot(oldKeys[j]);
+                    this.keys[i] = oldKeys[j];
+                    this.highest[i] = oldHighest[j];
+                    this.window[i] = oldWindow[j];
+                }
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final Counter lost;
+    private final Counter duplicate;
+    private final Counter reordered;
+    private final Counter untracked;
+
+    public SequenceTracker(final MeterRegistry registry, final Tags commonTags, final int maxDevices) {
+
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(Math.max(1, maxDevices / STRIPES));
+        }
+
+        this.lost = registry.counter("messages.lost", commonTags);
+        this.duplicate = registry.counter("messages.duplicate", commonTags);
+        this.reordered = registry.counter("messages.reordered", commonTags);
+        this.untracked = registry.counter("messages.untracked", commonTags);
+        registry.gauge("sequence.devices", commonTags, this, SequenceTracker::size);
+    }
+
+    public static SequenceTracker fromEnv(final MeterRegistry registry, final Tags commonTags) {
+        return new SequenceTracker(registry, commonTags,
+                Environment.getAs("SEQUENCE_TRACKING_MAX_DEVICES", 1_000_000, Integer::parseInt));
+    }
+
+    private static int mix(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Combine producer ID and device key into a single, non-zero, key.
+     */
+    private static long key(final long producerId, final long deviceKey) {
+        final long key = producerId * 0xC2B2AE3D27D4EB4FL ^ deviceKey;
+        return key != 0 ? key : 1;
+    }
+
+    /**
+     * Track a received message.
+     *
+     * @param producerId The ID of the producer.
+     * @param deviceKey The key of the device.
+     * @param sequence The sequence number of the message.
+     */
+    public void received(final long producerId, final long deviceKey, final long sequence) {
+
+        final long key = key(producerId, deviceKey);
+        final Stripe stripe = this.stripes[(mix(key) >>> 28) & (STRIPES - 1)];
+
+        // only the lower 32 bits are kept, differences are calculated with wrap around
+        final int seq = (int) sequence;
+
+        long lost = 0;
+        boolean duplicate = false;
+        boolean reordered = false;
+        boolean untracked = false;
+
+        synchronized (stripe) {
+
+            int i = stripe.slot(key);
+            if (stripe.keys[i] == 0) {
+                i = stripe.insert(key, seq);
+                untracked = i < 0;
+            } else {
+
+                final int diff = seq - stripe.highest[i];
+                final int window = stripe.window[i];
+
+                if (diff > 0) {
+                    // advance the window, what falls out of it without being received is lost
+                    if (diff >= WINDOW) {
+                        lost = (WINDOW - Integer.bitCount(window)) + (long) (diff - WINDOW);
+                        stripe.window[i] = 1;
+                    } else {
+                        final int out = window >>> (WINDOW - diff);
+                        lost = diff - Integer.bitCount(out);
+                        stripe.window[i] = (window << diff) | 1;
+                    }
+                    stripe.highest[i] = seq;
+                } else if (diff == 0) {
+                    duplicate = true;
+                } else if (-diff >= WINDOW) {
+                    // too old to tell, already counted as lost
+                    reordered = true;
+                } else {
+                    final int bit = 1 << -diff;
+                    if ((window & bit) != 0) {
+                        duplicate = true;
+                    } else {
+                        stripe.window[i] = window | bit;
+                        reordered = true;
+                    }
+                }
+            }
+        }
+
+        if (lost > 0) {
+            this.lost.increment(lost);
+        } else if (duplicate) {
+            this.duplicate.increment();
+        } else if (reordered) {
+            this.reordered.increment();
+        } else if (untracked) {
+            this.untracked.increment();
+        }
+    }
+
+    private double size() {
+        long size = 0;
+        for (final Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+}
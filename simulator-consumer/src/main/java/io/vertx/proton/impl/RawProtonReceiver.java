@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+
+package io.vertx.proton.impl;
+
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.codec.ReadableBuffer;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Receiver;
+
+import io.vertx.proton.ProtonReceiver;
+
+/**
+ * A receiver, which hands out the encoded messages of its deliveries, instead of decoding them.
+ * <p>
+ * The transport of vertx-proton dispatches deliveries to {@link ProtonReceiverImpl#onDelivery()}, which always
+ * decodes the message. That method is package private, so this class must live in the package of vertx-proton to
+ * override it.
+ * <p>
+ * The receiver takes over the link of a receiver, which was created through the public API, and replaces it as the
+ * context of the link. Opening, closing and flow control work as before. Complete deliveries are accepted and
+ * settled after the handler returned. With a prefetch, the credit of each delivery is replenished, otherwise the
+ * application has to grant credit.
+ */
+public final class RawProtonReceiver extends ProtonReceiverImpl {
+
+    @FunctionalInterface
+    public interface DeliveryHandler {
+        /**
+         * Handle the encoded message of a delivery.
+         *
+         * @param encoded The encoded message, only valid during the call.
+         */
+        void handle(ReadableBuffer encoded);
+    }
+
+    private final DeliveryHandler handler;
+
+    private RawProtonReceiver(final Receiver receiver, final DeliveryHandler handler) {
+        super(receiver);
+        this.handler = handler;
+    }
+
+    /**
+     * Take over the link of a receiver.
+     * <p>
+     * The receiver must not have been opened yet, and must not be used afterwards.
+     *
+     * @param receiver The receiver, created by vertx-proton.
+     * @param handler The handler of the encoded messages.
+     * @return The new receiver of the link.
+     */
+    public static RawProtonReceiver wrap(final ProtonReceiver receiver, final DeliveryHandler handler) {
+        return new RawProtonReceiver((Receiver) ((ProtonReceiverImpl) receiver).link, handler);
+    }
+
+    @Override
+    void onDelivery() {
+        final Receiver receiver = (Receiver) this.link;
+        final Delivery delivery = receiver.current();
+        if (delivery == null) {
+            return;
+        }
+
+        if (delivery.isAborted()) {
+            receiver.advance();
+            delivery.settle();
+            replenish(receiver);
+            return;
+        }
+
+        if (delivery.isPartial()) {
+            // proton keeps the transfers, until the delivery is complete
+            return;
+        }
+
+        final ReadableBuffer encoded = receiver.recv();
+        receiver.advance();
+
+        this.handler.handle(encoded);
+
+        if (!delivery.remotelySettled()) {
+            delivery.disposition(Accepted.getInstance());
+        }
+        delivery.settle();
+
+        replenish(receiver);
+    }
+
+    private void replenish(final Receiver receiver) {
+        if (getPrefetch() > 0) {
+            // the transport flushes after processing its events
+            receiver.flow(1);
+        }
+    }
+
+}
@@ -14,6 +14,9 @@ import static de.dentrassi.hono.demo.common.Select.oneOf;
 import static io.glutamate.lang.Environment.consumeAs;
 import static io.glutamate.lang.Environment.getAs;
 
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -21,11 +24,15 @@ import org.slf4j.LoggerFactory;
 
 import de.dentrassi.hono.demo.common.AppRuntime;
 import de.dentrassi.hono.demo.common.DeadlockDetector;
+import de.dentrassi.hono.demo.common.LatencyHistograms;
 import de.dentrassi.hono.demo.common.Payload;
 import de.dentrassi.hono.demo.common.ProducerConfig;
+import de.dentrassi.hono.demo.common.Provisioner;
 import de.dentrassi.hono.demo.common.Registration;
 import de.dentrassi.hono.demo.common.Tenant;
+import de.dentrassi.hono.demo.common.TickScheduler;
 import de.dentrassi.hono.demo.common.Tls;
+import de.dentrassi.hono.demo.common.TlsStatistics;
 import io.glutamate.lang.Environment;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
@@ -33,6 +40,10 @@ import io.micrometer.core.instrument.Tags;
 import io.netty.handler.ssl.OpenSsl;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
 import io.vertx.core.net.OpenSSLEngineOptions;
 import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.WebClient;
@@ -47,17 +58,39 @@ public class Application {
 
     private static final String METHOD = Environment.get("HTTP_METHOD").orElse("PUT");
 
+    private static final String HTTP_VERSION = Environment.get("HTTP_VERSION").orElse("1.1");
+
+    private static final boolean HTTP2 = "2".equals(HTTP_VERSION);
+
+    private static final ConnectionModel CONNECTION_MODEL = ConnectionModel.fromEnv();
+
+    private static final int DEVICES_PER_CONNECTION = Environment.getAs("DEVICES_PER_CONNECTION", 10,
+            Integer::parseInt);
+
+    // tracking HTTP/2 streams and connection setup requires the raw client, so default to it
+    private static final String HTTP_CLIENT = Environment.get("HTTP_CLIENT")
+            .orElse(HTTP2 || CONNECTION_MODEL != ConnectionModel.SHARED ? "raw" : "webclient");
+
     private static final boolean NOAUTH = Environment.getAs("HTTP_NOAUTH", false, Boolean::parseBoolean);
 
     private static final String PASSWORD = Environment.get("DEVICE_PASSWORD").orElse("hono-secret");
 
     public static final boolean AUTO_REGISTER = Environment.getAs("AUTO_REGISTER", true, Boolean::parseBoolean);
 
+    private static final LoadModel LOAD_MODEL = LoadModel.fromEnv();
+
+    public static final int MAX_IN_FLIGHT_PER_DEVICE = Environment.getAs("MAX_IN_FLIGHT_PER_DEVICE", 10,
+            Integer::parseInt);
+
+    private static final int MAX_IN_FLIGHT = Environment.getAs("MAX_IN_FLIGHT", 0, Integer::parseInt);
+
     public static void main(final String[] args) throws Exception {
 
         try (
                 DeadlockDetector detector = new DeadlockDetector();
-                AppRuntime runtime = new AppRuntime();) {
+                AppRuntime runtime = new AppRuntime(options -> {
+                    consumeAs("VERTX_EVENT_POOL_SIZE", Integer::parseInt, options::setEventLoopPoolSize);
+                });) {
             runSimulator(runtime);
         } catch (final Exception e) {
             System.err.println("Failed to initialize application");
@@ -74,10 +107,18 @@ public class Application {
 
         System.out.format("#devices: %s, #threads: %s%n", numberOfDevices, numberOfThreads);
         System.out.format("Auto Register: %s%n", AUTO_REGISTER);
+        System.out.format("HTTP client: %s, version: %s%n", HTTP_CLIENT, HTTP_VERSION);
+        System.out.format("Connection model: %s%n", CONNECTION_MODEL);
+        if (CONNECTION_MODEL == ConnectionModel.PER_N_DEVICES) {
+            System.out.format("    Devices per connection: %s%n", DEVICES_PER_CONNECTION);
+        }
+        System.out.format("Load model: %s%n", LOAD_MODEL);
+        if (LOAD_MODEL == LoadModel.OPEN) {
+            System.out.format("    Max in flight - device: %s, process: %s%n", MAX_IN_FLIGHT_PER_DEVICE,
+                    MAX_IN_FLIGHT > 0 ? MAX_IN_FLIGHT : "unlimited");
+        }
         System.out.format("TLS insecure: %s%n", Tls.insecure());
 
-        System.out.println("Vertx Native: " + runtime.getVertx().isNativeTransportEnabled());
-
         System.out.format("OpenSSL - available: %s -> %s%n", OpenSsl.isAvailable(), OpenSsl.versionString());
         System.out.println("Key Manager: " + OpenSsl.supportsKeyManagerFactory());
         System.out.println("Host name validation: " + OpenSsl.supportsHostnameValidation());
@@ -93,9 +134,23 @@ public class Application {
                 Tag.of("protocol", "http"),
                 Tag.of("tenant", Tenant.TENANT),
                 config.getType().asTag());
-        final Statistics stats = new Statistics(registry, commonTags);
+        final LatencyHistograms histograms = LatencyHistograms.create(runtime);
+        final Statistics stats = new Statistics(registry, commonTags, histograms);
+
+        final Optional<Provisioner> provisioner = register.isPresent()
+                ? Provisioner.fromEnv(registry, commonTags)
+                : Optional.empty();
+        if (provisioner.isPresent()) {
+            provisioner.get().provisionAll(Tenant.TENANT + "/" + deviceIdPrefix, 0, numberOfDevices,
+                    i -> register.get().retryDevice(String.format("%s-%s", deviceIdPrefix, i),
+                            String.format("user-%s-%s", deviceIdPrefix, i), PASSWORD));
+        }
+
+        final InFlightLimit inFlightLimit = new InFlightLimit(MAX_IN_FLIGHT);
+        registry.gauge("messages_in_flight", commonTags, inFlightLimit, InFlightLimit::current);
 
-        final var webClient = createWebClient(runtime.getVertx());
+        final var requestFactory = createRequestFactory(runtime.getVertx(), registry, commonTags);
+        final var scheduler = TickScheduler.create(runtime, commonTags);
 
         for (int i = 0; i < numberOfDevices; i++) {
 
@@ -104,11 +159,12 @@ public class Application {
 
             logger.debug("Starting device - deviceId: {}, authId: {}", deviceId, username);
 
-            final var request = createRequest(webClient, config, Payload.payload(), Tenant.TENANT, deviceId,
+            final var request = requestFactory.create(i, config, Payload.payload(), Tenant.TENANT, deviceId,
                     username, PASSWORD);
 
-            final Device device = new Device(runtime.getVertx(), () -> request, config, username, deviceId,
-                    Tenant.TENANT, PASSWORD, register, Payload.payload(), stats);
+            final Device device = new Device(runtime.getVertx(), scheduler, request, config, username,
+                    deviceId, Tenant.TENANT, PASSWORD, register, Payload.payload(), stats, LOAD_MODEL,
+                    inFlightLimit);
             device.start();
 
         }
@@ -117,7 +173,7 @@ public class Application {
 
     }
 
-    private static WebClient createWebClient(final Vertx vertx) {
+    private static WebClientOptions createClientOptions(final Vertx vertx) {
         final WebClientOptions clientOptions = new WebClientOptions();
 
         consumeAs("VERTX_KEEP_ALIVE", Boolean::parseBoolean, clientOptions::setKeepAlive);
@@ -127,6 +183,21 @@ public class Application {
         clientOptions.setConnectTimeout(getAs("VERTX_CONNECT_TIMEOUT", 5_000, Integer::parseInt));
         clientOptions.setIdleTimeout(getAs("VERTX_IDLE_TIMEOUT", 5_000, Integer::parseInt));
 
+        if (HTTP2) {
+            // h2 over TLS is negotiated using ALPN, h2c by upgrade or with prior knowledge
+            clientOptions.setProtocolVersion(HttpVersion.HTTP_2);
+            clientOptions.setUseAlpn(true);
+            clientOptions.setHttp2ClearTextUpgrade(getAs("HTTP2_CLEAR_TEXT_UPGRADE", true, Boolean::parseBoolean));
+            consumeAs("HTTP2_MAX_POOL_SIZE", Integer::parseInt, clientOptions::setHttp2MaxPoolSize);
+            consumeAs("HTTP2_MAX_CONCURRENT_STREAMS", Integer::parseInt, clientOptions::setHttp2MultiplexingLimit);
+        }
+
+        if (CONNECTION_MODEL != ConnectionModel.SHARED) {
+            // each client stands for a group of devices, sharing exactly one connection
+            clientOptions.setMaxPoolSize(1);
+            clientOptions.setHttp2MaxPoolSize(1);
+        }
+
         if (Tls.insecure()) {
             clientOptions.setVerifyHost(false);
             clientOptions.setTrustAll(true);
@@ -139,10 +210,51 @@ public class Application {
             clientOptions.setOpenSslEngineOptions(new OpenSSLEngineOptions());
         }
 
-        return WebClient.create(vertx, clientOptions);
+        return clientOptions;
+    }
+
+    @FunctionalInterface
+    private interface RequestFactory {
+        Request create(int device, ProducerConfig config, Payload payload, String tenant, String deviceId,
+                String user, String password);
     }
 
-    private static HttpRequest<Buffer> createRequest(final WebClient client, final ProducerConfig config,
+    private static RequestFactory createRequestFactory(final Vertx vertx, final MeterRegistry registry,
+            final Tags commonTags) {
+
+        final WebClientOptions clientOptions = createClientOptions(vertx);
+
+        final StreamStatistics streams = HTTP2
+                ? new StreamStatistics(registry, commonTags, clientOptions.getHttp2MultiplexingLimit())
+                : null;
+        final ConnectionStatistics connections = new ConnectionStatistics(registry, commonTags, streams,
+                TlsStatistics.fromEnv(registry, commonTags));
+
+        // clients by connection group, devices are only created from the main thread
+
+        switch (HTTP_CLIENT) {
+        case "raw":
+            final Map<Integer, HttpClient> clients = new HashMap<>();
+            return (device, config, payload, tenant, deviceId, user, password) -> {
+                final HttpClient httpClient = clients.computeIfAbsent(
+                        CONNECTION_MODEL.group(device, DEVICES_PER_CONNECTION),
+                        g -> connections.track(vertx.createHttpClient(clientOptions)));
+                return createRawRequest(httpClient, streams, connections, config, payload, tenant, deviceId,
+                        user, password);
+            };
+        default:
+            final Map<Integer, WebClient> webClients = new HashMap<>();
+            return (device, config, payload, tenant, deviceId, user, password) -> {
+                final WebClient webClient = webClients.computeIfAbsent(
+                        CONNECTION_MODEL.group(device, DEVICES_PER_CONNECTION),
+                        g -> WebClient.wrap(connections.track(vertx.createHttpClient(clientOptions)),
+                                clientOptions));
+                return createWebClientRequest(webClient, config, payload, tenant, deviceId, user, password);
+            };
+        }
+    }
+
+    private static Request createWebClientRequest(final WebClient client, final ProducerConfig config,
             final Payload payload, final String tenant, final String deviceId, final String user,
             final String password) {
 
@@ -166,7 +278,38 @@ public class Application {
 
         request.putHeader("Content-Type", payload.getContentType());
 
-        return request;
+        return new WebClientRequest(request);
+    }
+
+    private static Request createRawRequest(final HttpClient client, final StreamStatistics streams,
+            final ConnectionStatistics connections, final ProducerConfig config, final Payload payload,
+            final String tenant, final String deviceId, final String user, final String password) {
+
+        final var auth = Credentials.basic(user + "@" + tenant, password);
+        final var url = URI.create(buildUrl(config, tenant, deviceId));
+
+        final boolean ssl = "https".equalsIgnoreCase(url.getScheme());
+        final int port = url.getPort() > 0 ? url.getPort() : ssl ? 443 : 80;
+
+        final RequestOptions options = new RequestOptions()
+                .setHost(url.getHost())
+                .setPort(port)
+                .setSsl(ssl)
+                .setURI(url.getRawPath());
+
+        final HttpMethod method;
+
+        switch (METHOD) {
+        case "POST":
+            method = HttpMethod.POST;
+            break;
+        default:
+            method = HttpMethod.PUT;
+            break;
+        }
+
+        return new RawRequest(client, method, options, NOAUTH ? null : auth, payload.getContentType(), streams,
+                connections);
     }
 
     private static String buildUrl(final ProducerConfig config, final String tenant, final String deviceId) {
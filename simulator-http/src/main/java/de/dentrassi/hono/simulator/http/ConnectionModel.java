@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import io.glutamate.lang.Environment;
+
+/**
+ * The model of how devices map to connections.
+ */
+public enum ConnectionModel {
+    /**
+     * All devices share one client, and its connection pool.
+     */
+    SHARED,
+    /**
+     * Each device has its own connection.
+     */
+    PER_DEVICE,
+    /**
+     * A group of devices shares one connection.
+     */
+    PER_N_DEVICES;
+
+    /**
+     * Get the connection group of a device.
+     *
+     * @param device The index of the device.
+     * @param devicesPerConnection The number of devices sharing one connection, for {@link #PER_N_DEVICES}.
+     * @return The index of the group.
+     */
+    public int group(final int device, final int devicesPerConnection) {
+        switch (this) {
+        case PER_DEVICE:
+            return device;
+        case PER_N_DEVICES:
+            return device / Math.max(devicesPerConnection, 1);
+        default:
+            return 0;
+        }
+    }
+
+    public static ConnectionModel from(final String name) {
+        return ConnectionModel.valueOf(name.replace('-', '_').toUpperCase());
+    }
+
+    public static ConnectionModel fromEnv() {
+        return Environment.getAs("CONNECTION_MODEL", SHARED, ConnectionModel::from);
+    }
+}
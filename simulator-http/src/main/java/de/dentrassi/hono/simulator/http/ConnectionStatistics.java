@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.demo.common.TlsStatistics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpConnection;
+
+/**
+ * Statistics of the connections, opened by the HTTP clients.
+ */
+public class ConnectionStatistics {
+
+    private final AtomicLong connections;
+    private final Counter established;
+    private final Counter closed;
+    private final Timer setup;
+
+    private final StreamStatistics streams;
+    private final TlsStatistics tls;
+
+    // connections which were opened, but not yet used by a request
+    private final Set<HttpConnection> opened = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create new statistics.
+     *
+     * @param registry The registry to register the meters with.
+     * @param commonTags The tags to use.
+     * @param streams The stream statistics, to clean up when connections get closed. May be {@code null}.
+     * @param tls The TLS statistics.
+     */
+    public ConnectionStatistics(final MeterRegistry registry, final Tags commonTags,
+            final StreamStatistics streams, final TlsStatistics tls) {
+        this.streams = streams;
+        this.tls = tls;
+
+        this.connections = registry.gauge("connections", commonTags, new AtomicLong());
+        this.established = registry.counter("connections_established", commonTags);
+        this.closed = registry.counter("connections_closed", commonTags);
+        this.setup = registry.timer("connections_setup_duration", commonTags);
+    }
+
+    /**
+     * Track all connections of a client.
+     *
+     * @param client The client to track.
+     * @return The client, for chaining.
+     */
+    public HttpClient track(final HttpClient client) {
+        client.connectionHandler(this::connected);
+        return client;
+    }
+
+    private void connected(final HttpConnection connection) {
+        this.connections.incrementAndGet();
+        this.established.increment();
+        this.opened.add(connection);
+
+        connection.closeHandler(v -> {
+            this.opened.remove(connection);
+            this.connections.decrementAndGet();
+            this.closed.increment();
+            if (this.streams != null) {
+                this.streams.closed(connection);
+            }
+        });
+    }
+
+    /**
+     * Record that a request got assigned to a connection.
+     * <p>
+     * The first request of a new connection is the one which waited for it to be opened, so the time it waited is
+     * recorded as the time it took to set up the connection, including the TLS handshake. Later requests are
+     * ignored.
+     *
+     * @param connection The connection of the request.
+     * @param nanos The time since the request was created, in nanoseconds.
+     */
+    public void assigned(final HttpConnection connection, final long nanos) {
+        if (!this.opened.remove(connection)) {
+            return;
+        }
+        this.setup.record(nanos, TimeUnit.NANOSECONDS);
+        if (connection.isSsl()) {
+            this.tls.handshake(connection.sslSession(), nanos);
+        }
+    }
+
+}
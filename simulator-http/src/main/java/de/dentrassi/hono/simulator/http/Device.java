@@ -11,23 +11,23 @@
 package de.dentrassi.hono.simulator.http;
 
 import java.time.Duration;
-import java.time.Instant;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.dentrassi.hono.demo.common.Payload;
+import de.dentrassi.hono.demo.common.PayloadHeader;
 import de.dentrassi.hono.demo.common.ProducerConfig;
 import de.dentrassi.hono.demo.common.Registration;
+import de.dentrassi.hono.demo.common.TickScheduler;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import io.vertx.ext.web.client.HttpRequest;
-import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.core.buffer.Buffer;
 
 public class Device {
 
@@ -48,19 +48,42 @@ public class Device {
 
     private final Statistics statistics;
 
-    private final Supplier<HttpRequest<?>> requestProvider;
+    private final Request request;
 
     private final Payload payload;
 
-    public Device(final Vertx vertx, final Supplier<HttpRequest<?>> requestProvider, final ProducerConfig config,
-            final String user, final String deviceId, final String tenant, final String password,
-            final Optional<Registration> register, final Payload payload, final Statistics statistics) {
+    private final TickScheduler.Task task;
 
-        Objects.requireNonNull(requestProvider);
+    private final LoadModel loadModel;
+
+    private final InFlightLimit inFlightLimit;
+
+    private final long deviceKey;
+
+    private long sequence;
+
+    // requests in flight, for the open load model
+    private int inFlight;
+
+    // requests which are due, but could not be sent yet, for the open load model
+    private int pending;
+
+    // the time the last tick was due, for the open load model
+    private long lastDue;
+
+    // waiting for the process-wide in-flight limit, for the open load model
+    private boolean waiting;
+
+    public Device(final Vertx vertx, final TickScheduler scheduler, final Request request,
+            final ProducerConfig config, final String user, final String deviceId, final String tenant,
+            final String password, final Optional<Registration> register, final Payload payload,
+            final Statistics statistics, final LoadModel loadModel, final InFlightLimit inFlightLimit) {
+
+        Objects.requireNonNull(request);
         Objects.requireNonNull(payload);
 
         this.vertx = vertx;
-        this.requestProvider = requestProvider;
+        this.request = request;
         this.config = config;
 
         this.user = user;
@@ -69,6 +92,11 @@ public class Device {
         this.statistics = statistics;
         this.register = register.orElse(null);
         this.payload = payload;
+        this.loadModel = loadModel;
+        this.inFlightLimit = inFlightLimit;
+        this.deviceKey = PayloadHeader.deviceKey(deviceId);
+
+        this.task = scheduler.register(this::tick);
 
     }
 
@@ -78,7 +106,7 @@ public class Device {
     }
 
     private void schedule(final long delay) {
-        this.vertx.setTimer(delay, v -> tick());
+        this.task.schedule(delay);
     }
 
     protected Future<?> register() throws Exception {
@@ -97,41 +125,164 @@ public class Device {
 
     protected void tick() {
 
-        final var start = Instant.now();
+        switch (this.loadModel) {
+        case OPEN:
+            tickOpen();
+            break;
+        default:
+            tickClosed();
+            break;
+        }
+
+    }
+
+    private void tickClosed() {
+
+        final long intended = TimeUnit.MILLISECONDS.toNanos(this.task.deadline());
+        final long start = System.nanoTime();
 
         this.statistics.scheduled();
 
-        this.requestProvider
-                .get()
-                .sendBuffer(this.payload.getBuffer(), ar -> {
+        final long sequence = this.sequence++;
+
+        this.request
+                .send(payload(sequence), ar -> {
+
+                    sequenceCompleted(sequence, ar);
+                    response(intended, start, ar)
+                            .setHandler(v -> scheduleNext(start));
+
+                });
+
+    }
+
+    private void tickOpen() {
+
+        final long period = this.config.getPeriod().toMillis();
+
+        // schedule the next tick first, on the intended schedule
+
+        this.lastDue = this.task.deadline();
+        this.task.scheduleAt(this.lastDue + period);
+
+        this.statistics.scheduled();
+
+        // queue the new message behind what is overdue, then send as far as the limits allow
+
+        this.pending++;
+        this.statistics.backlog();
+
+        sendPending();
+
+    }
+
+    /**
+     * Send pending messages, oldest first, as far as the limits allow.
+     */
+    private void sendPending() {
+
+        final long period = this.config.getPeriod().toMillis();
+
+        while (this.pending > 0 && trySend(this.lastDue - (this.pending - 1) * period)) {
+            this.pending--;
+            this.statistics.backlogSent();
+        }
+
+    }
+
+    /**
+     * Try sending a message, if the in-flight limits allow it.
+     *
+     * @param due The time the message was due, in {@link TickScheduler#now()}.
+     * @return {@code true} if the message was sent, {@code false} otherwise.
+     */
+    private boolean trySend(final long due) {
 
-                    response(start, ar)
-                            .setHandler(v -> scheduleNext(start.plus(this.config.getPeriod())));
+        if (this.inFlight >= Application.MAX_IN_FLIGHT_PER_DEVICE) {
+            return false;
+        }
+        if (!this.inFlightLimit.tryAcquire()) {
+            // without requests in flight, nothing else would trigger sending the backlog before the next tick
+            if (!this.waiting) {
+                this.waiting = true;
+                this.inFlightLimit.await(() -> this.task.context().runOnContext(v -> {
+                    this.waiting = false;
+                    sendPending();
+                }));
+            }
+            return false;
+        }
+
+        this.inFlight++;
+
+        final long intended = TimeUnit.MILLISECONDS.toNanos(due);
+        final long start = System.nanoTime();
+        final long sequence = this.sequence++;
+
+        this.request
+                .send(payload(sequence), ar -> {
+
+                    sequenceCompleted(sequence, ar);
+                    response(intended, start, ar)
+                            .setHandler(v -> sendCompleted());
 
                 });
 
+        return true;
     }
 
-    private <T> Future<?> response(final Instant start, final AsyncResult<HttpResponse<T>> result) {
+    private Buffer payload(final long sequence) {
+        return this.payload.getBuffer(PayloadHeader.Protocol.HTTP, this.deviceKey, sequence);
+    }
+
+    /**
+     * Give back the sequence number of a message which failed, if possible.
+     * <p>
+     * The number can only be re-used if no later one was taken in the meantime. Otherwise the consumer will see a
+     * gap, which is recorded as skipped. Failing without a response leaves it open if the message got through, so
+     * such numbers are never re-used.
+     */
+    private void sequenceCompleted(final long sequence, final AsyncResult<Integer> result) {
+
+        if (result.succeeded() && result.result() >= 200 && result.result() <= 299) {
+            return;
+        }
+
+        if (result.succeeded() && sequence == this.sequence - 1) {
+            this.sequence--;
+        } else {
+            this.statistics.sequenceSkipped();
+        }
+
+    }
+
+    private void sendCompleted() {
+
+        this.inFlight--;
+        this.inFlightLimit.release();
+
+        sendPending();
+
+    }
+
+    private Future<?> response(final long intended, final long start, final AsyncResult<Integer> result) {
         if (result.succeeded()) {
-            return handleResponse(start, result.result());
+            return handleResponse(intended, start, result.result());
         } else {
             handleException(result.cause());
             return Future.succeededFuture();
         }
     }
 
-    private void scheduleNext(final Instant next) {
-        var delay = Duration.between(Instant.now(), next).toMillis();
-        if (delay <= 0) {
-            delay = 1;
-        }
-        schedule(delay);
+    private void scheduleNext(final long start) {
+        this.task.scheduleAt(TimeUnit.NANOSECONDS.toMillis(start) + this.config.getPeriod().toMillis());
     }
 
-    protected void handleSuccess(final Instant start) {
+    protected void handleSuccess(final long intended, final long start) {
+        final long end = System.nanoTime();
         this.statistics.success();
-        this.statistics.duration(Duration.between(start, Instant.now()));
+        this.statistics.duration(Duration.ofNanos(end - start));
+        this.statistics.latency(intended, start, end);
     }
 
     protected void handleException(final Throwable e) {
@@ -140,16 +291,14 @@ public class Device {
         this.statistics.error(0);
     }
 
-    protected Future<?> handleFailure(final HttpResponse<?> response) {
+    protected Future<?> handleFailure(final int code) {
         this.statistics.failed();
-        this.statistics.error(response.statusCode());
+        this.statistics.error(code);
 
-        if (logger.isDebugEnabled()) {
-            logger.debug("handleFailure - code: {}, body: {}", response.statusCode(), response.bodyAsString());
-        }
+        logger.debug("handleFailure - code: {}", code);
 
         try {
-            switch (response.statusCode()) {
+            switch (code) {
             case 401:
             case 403: //$FALL-THROUGH$
                 if (this.register != null && Application.AUTO_REGISTER) {
@@ -164,13 +313,12 @@ public class Device {
         return Future.succeededFuture();
     }
 
-    protected Future<?> handleResponse(final Instant start, final HttpResponse<?> response) {
+    protected Future<?> handleResponse(final long intended, final long start, final int code) {
 
-        final int code = response.statusCode();
         if (code < 200 || code > 299) {
-            return handleFailure(response);
+            return handleFailure(code);
         } else {
-            handleSuccess(start);
+            handleSuccess(intended, start);
             return Future.succeededFuture();
         }
 
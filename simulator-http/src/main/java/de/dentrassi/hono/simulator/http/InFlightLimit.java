@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking limit of requests in flight.
+ * <p>
+ * Callers which failed to acquire a permit can {@link #await(Runnable)} one being released.
+ */
+public class InFlightLimit {
+
+    private final int max;
+    private final AtomicInteger current = new AtomicInteger();
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a new limit.
+     *
+     * @param max The maximum number of requests in flight, a value of zero or less means unlimited.
+     */
+    public InFlightLimit(final int max) {
+        this.max = max > 0 ? max : Integer.MAX_VALUE;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            final int value = this.current.get();
+            if (value >= this.max) {
+                return false;
+            }
+            if (this.current.compareAndSet(value, value + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        this.current.decrementAndGet();
+        wakeUp();
+    }
+
+    /**
+     * Get notified once, when a permit might be available.
+     * <p>
+     * The waiter is called on the thread releasing the permit, and must not try to acquire it directly. It also
+     * does not reserve the permit, the waiter needs to try acquiring it again.
+     *
+     * @param waiter The waiter to notify.
+     */
+    public void await(final Runnable waiter) {
+        this.waiters.add(waiter);
+
+        // a permit might have been released before the waiter was queued
+        if (this.current.get() < this.max) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        final Runnable waiter = this.waiters.poll();
+        if (waiter != null) {
+            waiter.run();
+        }
+    }
+
+    public int current() {
+        return this.current.get();
+    }
+
+}
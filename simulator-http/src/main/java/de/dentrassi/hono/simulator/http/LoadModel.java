@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import io.glutamate.lang.Environment;
+
+/**
+ * The model used for generating load.
+ */
+public enum LoadModel {
+    /**
+     * The next message is scheduled after the previous one was completed.
+     */
+    CLOSED,
+    /**
+     * Messages are sent on the intended schedule, whether or not the previous ones are still in flight.
+     */
+    OPEN;
+
+    public static LoadModel from(final String name) {
+        return LoadModel.valueOf(name.toUpperCase());
+    }
+
+    public static LoadModel fromEnv() {
+        return Environment.getAs("LOAD_MODEL", CLOSED, LoadModel::from);
+    }
+}
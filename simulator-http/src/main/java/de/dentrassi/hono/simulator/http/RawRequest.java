@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpConnection;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.net.SocketAddress;
+
+/**
+ * A request, sent using the plain Vert.x HTTP client.
+ * <p>
+ * Compared to the web client, this doesn't copy headers or set up a codec per message, and doesn't aggregate the
+ * response body. All header values are encoded once, when the request gets created. The payload buffer is passed on
+ * to the connection without copying its content.
+ */
+public class RawRequest implements Request {
+
+    /**
+     * The state of a single request, completing it exactly once.
+     */
+    private final class Exchange implements Handler<HttpClientResponse> {
+
+        private final Handler<AsyncResult<Integer>> handler;
+        private final long start = System.nanoTime();
+
+        private HttpClientRequest request;
+        private boolean done;
+
+        private Exchange(final Handler<AsyncResult<Integer>> handler) {
+            this.handler = handler;
+        }
+
+        private void started(final HttpVersion version) {
+            final HttpConnection connection = this.request.connection();
+            if (RawRequest.this.streams != null) {
+                RawRequest.this.streams.started(connection, version);
+            }
+            if (RawRequest.this.connections != null) {
+                RawRequest.this.connections.assigned(connection, System.nanoTime() - this.start);
+            }
+        }
+
+        @Override
+        public void handle(final HttpClientResponse response) {
+            // we are not interested in the body, so don't wait for it
+            complete(Future.succeededFuture(response.statusCode()));
+        }
+
+        private void failed(final Throwable cause) {
+            complete(Future.failedFuture(cause));
+        }
+
+        private void complete(final AsyncResult<Integer> result) {
+            if (this.done) {
+                return;
+            }
+            this.done = true;
+
+            if (RawRequest.this.streams != null) {
+                RawRequest.this.streams.ended(this.request.connection());
+            }
+            this.handler.handle(result);
+        }
+    }
+
+    private final HttpClient client;
+    private final HttpMethod method;
+    private final RequestOptions options;
+    private final SocketAddress server;
+
+    private final CharSequence authorization;
+    private final CharSequence contentType;
+
+    private final StreamStatistics streams;
+    private final ConnectionStatistics connections;
+
+    private int contentLength = -1;
+    private CharSequence contentLengthValue;
+
+    /**
+     * Create a new request.
+     *
+     * @param client The client to use.
+     * @param method The request method.
+     * @param options The request options, providing the target.
+     * @param authorization The value of the authorization header, may be {@code null}.
+     * @param contentType The value of the content type header.
+     * @param streams The stream statistics, may be {@code null} if streams should not be tracked.
+     * @param connections The connection statistics, may be {@code null} if connections should not be tracked.
+     */
+    public RawRequest(final HttpClient client, final HttpMethod method, final RequestOptions options,
+            final String authorization, final String contentType, final StreamStatistics streams,
+            final ConnectionStatistics connections) {
+
+        this.client = client;
+        this.method = method;
+        this.options = options;
+        this.server = SocketAddress.inetSocketAddress(options.getPort(), options.getHost());
+        this.streams = streams;
+        this.connections = connections;
+
+        this.authorization = authorization != null ? HttpHeaders.createOptimized(authorization) : null;
+        this.contentType = HttpHeaders.createOptimized(contentType);
+    }
+
+    @Override
+    public void send(final Buffer payload, final Handler<AsyncResult<Integer>> handler) {
+
+        final Exchange exchange = new Exchange(handler);
+
+        // resolving the server address once saves creating it for each request
+        final HttpClientRequest request = this.client.request(this.method, this.server, this.options, exchange);
+        exchange.request = request;
+
+        // the exception handler may still be called after the response was received
+        request.exceptionHandler(exchange::failed);
+
+        if (this.authorization != null) {
+            request.putHeader(HttpHeaders.AUTHORIZATION, this.authorization);
+        }
+        request.putHeader(HttpHeaders.CONTENT_TYPE, this.contentType);
+        request.putHeader(HttpHeaders.CONTENT_LENGTH, contentLength(payload.length()));
+
+        if (this.streams != null || this.connections != null) {
+            // the connection is only known once the request got assigned to it, the head is still sent along with
+            // the payload, as the request ends before that happens
+            request.sendHead(exchange::started);
+        }
+
+        request.end(payload);
+    }
+
+    private CharSequence contentLength(final int length) {
+        // the payload normally doesn't change, so encode once
+        if (length != this.contentLength) {
+            this.contentLengthValue = HttpHeaders.createOptimized(Integer.toString(length));
+            this.contentLength = length;
+        }
+        return this.contentLengthValue;
+    }
+
+}
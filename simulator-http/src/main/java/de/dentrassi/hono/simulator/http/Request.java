@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A prepared request of a single device, which can be sent multiple times.
+ */
+@FunctionalInterface
+public interface Request {
+
+    /**
+     * Send the request.
+     *
+     * @param payload The payload to send.
+     * @param handler The handler, receiving the status code of the response.
+     */
+    void send(Buffer payload, Handler<AsyncResult<Integer>> handler);
+}
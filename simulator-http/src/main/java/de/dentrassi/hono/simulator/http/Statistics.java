@@ -13,6 +13,7 @@ package de.dentrassi.hono.simulator.http;
 import java.time.Duration;
 import java.util.concurrent.atomic.AtomicLong;
 
+import de.dentrassi.hono.demo.common.LatencyHistograms;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
@@ -26,18 +27,26 @@ public class Statistics {
     private final Counter scheduled;
     private final Counter failure;
     private final Counter sent;
+    private final Counter sequenceSkipped;
     private final AtomicLong backlog;
     private final Timer durations;
 
-    public Statistics(final MeterRegistry registry, final Tags commonTags) {
+    private final LatencyHistograms.Series intendedLatency;
+    private final LatencyHistograms.Series actualLatency;
+
+    public Statistics(final MeterRegistry registry, final Tags commonTags, final LatencyHistograms histograms) {
         this.registry = registry;
         this.commonTags = commonTags;
 
         this.scheduled = registry.counter("messages_scheduled", commonTags);
         this.failure = registry.counter("messages_failure", commonTags);
         this.sent = registry.counter("messages_sent", commonTags);
+        this.sequenceSkipped = registry.counter("messages_sequence_skipped", commonTags);
         this.backlog = registry.gauge("messages_backlog", commonTags, new AtomicLong());
         this.durations = registry.timer("messages_duration", commonTags);
+
+        this.intendedLatency = histograms.series("messages_latency_intended", commonTags);
+        this.actualLatency = histograms.series("messages_latency_actual", commonTags);
     }
 
     public void scheduled() {
@@ -52,6 +61,13 @@ public class Statistics {
         this.sent.increment();
     }
 
+    /**
+     * Record a sequence number which was taken by a failed message, and so will be missing on the consumer side.
+     */
+    public void sequenceSkipped() {
+        this.sequenceSkipped.increment();
+    }
+
     public void backlog() {
         this.backlog.incrementAndGet();
     }
@@ -68,5 +84,19 @@ public class Statistics {
         this.durations.record(duration);
     }
 
+    /**
+     * Record the latency of a message.
+     * <p>
+     * The latency gets recorded twice, once measured from the time the message was intended to be sent, which
+     * corrects coordinated omission, and once from the time it actually got sent.
+     *
+     * @param intended The time the message was intended to be sent, in {@link System#nanoTime()}.
+     * @param actual The time the message was actually sent, in {@link System#nanoTime()}.
+     * @param end The time the response was received, in {@link System#nanoTime()}.
+     */
+    public void latency(final long intended, final long actual, final long end) {
+        this.intendedLatency.record(end - intended);
+        this.actualLatency.record(end - actual);
+    }
 
 }
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.vertx.core.http.HttpConnection;
+import io.vertx.core.http.HttpVersion;
+
+/**
+ * Statistics of the streams multiplexed over HTTP connections.
+ */
+public class StreamStatistics {
+
+    private final Map<HttpConnection, AtomicInteger> streams = new ConcurrentHashMap<>();
+
+    private final int multiplexingLimit;
+
+    private final DistributionSummary active;
+    private final DistributionSummary utilization;
+
+    /**
+     * Create new statistics.
+     *
+     * @param registry The registry to register the meters with.
+     * @param commonTags The tags to use.
+     * @param multiplexingLimit The client side limit of concurrent streams per connection, {@code -1} for
+     *        unlimited.
+     */
+    public StreamStatistics(final MeterRegistry registry, final Tags commonTags, final int multiplexingLimit) {
+        this.multiplexingLimit = multiplexingLimit;
+
+        this.active = registry.summary("http_connection_streams", commonTags);
+        this.utilization = registry.summary("http_connection_stream_utilization", commonTags);
+        registry.gauge("http_connections", commonTags, this.streams, Map::size);
+    }
+
+    public void started(final HttpConnection connection, final HttpVersion version) {
+        if (connection == null) {
+            return;
+        }
+
+        final int current = this.streams
+                .computeIfAbsent(connection, c -> new AtomicInteger())
+                .incrementAndGet();
+        this.active.record(current);
+
+        final long max = maxConcurrentStreams(connection, version);
+        if (max > 0) {
+            this.utilization.record((double) current / (double) max);
+        }
+    }
+
+    public void ended(final HttpConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        final AtomicInteger counter = this.streams.get(connection);
+        if (counter != null) {
+            counter.decrementAndGet();
+        }
+    }
+
+    public void closed(final HttpConnection connection) {
+        this.streams.remove(connection);
+    }
+
+    private long maxConcurrentStreams(final HttpConnection connection, final HttpVersion version) {
+
+        if (version != HttpVersion.HTTP_2) {
+            // no multiplexing, e.g. when the upgrade to h2c failed
+            return 1;
+        }
+
+        final long remote = connection.remoteSettings().getMaxConcurrentStreams();
+        if (this.multiplexingLimit > 0) {
+            return Math.min(remote, this.multiplexingLimit);
+        }
+        return remote;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.web.client.HttpRequest;
+
+/**
+ * A request, sent using the Vert.x web client.
+ */
+public class WebClientRequest implements Request {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebClientRequest.class);
+
+    private final HttpRequest<Buffer> request;
+
+    public WebClientRequest(final HttpRequest<Buffer> request) {
+        this.request = request;
+    }
+
+    @Override
+    public void send(final Buffer payload, final Handler<AsyncResult<Integer>> handler) {
+        this.request.sendBuffer(payload, ar -> {
+
+            if (ar.succeeded() && logger.isDebugEnabled()) {
+                final int code = ar.result().statusCode();
+                if (code < 200 || code > 299) {
+                    logger.debug("Request failed - code: {}, body: {}", code, ar.result().bodyAsString());
+                }
+            }
+
+            handler.handle(ar.map(response -> response.statusCode()));
+
+        });
+    }
+
+}
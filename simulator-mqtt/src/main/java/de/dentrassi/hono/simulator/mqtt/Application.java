@@ -12,22 +12,26 @@ package de.dentrassi.hono.simulator.mqtt;
 
 import static io.micrometer.core.instrument.Tag.of;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import de.dentrassi.hono.demo.common.AppRuntime;
+import de.dentrassi.hono.demo.common.LatencyHistograms;
 import de.dentrassi.hono.demo.common.ProducerConfig;
+import de.dentrassi.hono.demo.common.Provisioner;
 import de.dentrassi.hono.demo.common.Registration;
 import de.dentrassi.hono.demo.common.Tenant;
+import de.dentrassi.hono.demo.common.TickScheduler;
+import de.dentrassi.hono.demo.common.TlsStatistics;
 import io.glutamate.lang.Environment;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import io.netty.handler.ssl.OpenSsl;
+import io.vertx.core.net.NetClient;
 
 public class Application {
 
@@ -49,6 +53,10 @@ public class Application {
             Environment.consumeAs("VERTX_EVENT_POOL_SIZE", Integer::parseInt, options::setEventLoopPoolSize);
         })) {
             run(runtime);
+        } catch (final Exception e) {
+            System.err.println("Failed to run application");
+            e.printStackTrace();
+            System.exit(1);
         }
 
     }
@@ -56,15 +64,16 @@ public class Application {
     private static void run(final AppRuntime runtime) throws InterruptedException {
 
         final int numberOfDevices = Environment.getAs("NUM_DEVICES", 10, Integer::parseInt);
-        final int numberOfThreads = Environment.getAs("NUM_THREADS", 10, Integer::parseInt);
 
         final String deviceIdPrefix = Environment.get("HOSTNAME").orElse("");
 
-        final Optional<Registration> register = Registration.fromEnv();
-
-        final ScheduledExecutorService executor = Executors.newScheduledThreadPool(numberOfThreads);
+        // number of devices behind each gateway connection, zero for one connection per device
+        final int devicesPerGateway = Environment.getAs("MQTT_GATEWAY_DEVICES", 0, Integer::parseInt);
+        final int numberOfConnections = devicesPerGateway > 0
+                ? (numberOfDevices + devicesPerGateway - 1) / devicesPerGateway
+                : numberOfDevices;
 
-        System.out.println("Vertx Native: " + runtime.getVertx().isNativeTransportEnabled());
+        final Optional<Registration> register = Registration.fromEnv();
 
         System.out.format("OpenSSL - available: %s -> %s%n", OpenSsl.isAvailable(), OpenSsl.versionString());
         if (OpenSsl.isAvailable()) {
@@ -73,8 +82,19 @@ public class Application {
         }
 
         System.out.format("MQTT Endpoint: %s:%s%n", Device.HONO_MQTT_HOST, Device.HONO_MQTT_PORT);
+        if (devicesPerGateway > 0) {
+            System.out.format("Gateway mode - devices: %s, gateways: %s%n", numberOfDevices, numberOfConnections);
+        }
+
+        System.out.format("Max in flight: %s, max backlog: %s (per device)%n", Device.MAX_IN_FLIGHT_PER_DEVICE,
+                Device.MAX_BACKLOG_PER_DEVICE);
 
-        final Random r = new Random();
+        System.out.format("Flush - batch: %s, delay: %sus, consolidation: %s%n", Device.FLUSH_BATCH,
+                Device.FLUSH_DELAY_US, Device.FLUSH_CONSOLIDATION);
+
+        final boolean sharedClient = Environment.getAs("MQTT_SHARED_CLIENT", true, Boolean::parseBoolean);
+        System.out.format("Shared network client: %s%n", sharedClient);
+        Environment.is("WITH_OPENSSL", () -> System.out.println("Using OpenSSL for MQTT"));
 
         final Tags commonTags = Tags.of(
                 of("tenant", Tenant.TENANT),
@@ -83,42 +103,74 @@ public class Application {
 
         final MeterRegistry metrics = runtime.getRegistry();
         final AtomicLong connected = metrics.gauge("connections", commonTags, new AtomicLong());
-        final Statistics stats = new Statistics(metrics, commonTags);
-
-        try {
-
-            for (int i = 0; i < numberOfDevices; i++) {
+        final LatencyHistograms histograms = LatencyHistograms.create(runtime);
+        final Statistics stats = new Statistics(metrics, commonTags, histograms);
+        final TlsStatistics tls = TlsStatistics.fromEnv(metrics, commonTags);
+        System.out.format("TLS session resumption: %s%n", tls.isResumption());
+
+        // sharing the client also shares the TLS session cache between devices
+        final NetClient netClient = sharedClient ? Device.createNetClient(runtime.getVertx()) : null;
+
+        final ConnectController connectController = ConnectController.fromEnv(runtime.getVertx(), metrics,
+                commonTags);
+
+        final Optional<Provisioner> provisioner = register.isPresent()
+                ? Provisioner.fromEnv(metrics, commonTags)
+                : Optional.empty();
+        if (provisioner.isPresent()) {
+            if (devicesPerGateway > 0) {
+                provisioner.get().provisionAll(Tenant.TENANT + "/" + deviceIdPrefix + "/gw", 0,
+                        numberOfConnections,
+                        i -> register.get().retryDevice(gatewayId(deviceIdPrefix, i),
+                                String.format("gw-%s-%s", deviceIdPrefix, i), "hono-secret"));
+                provisioner.get().provisionAll(Tenant.TENANT + "/" + deviceIdPrefix, 0, numberOfDevices,
+                        i -> register.get().retryGatewayDevice(String.format("%s-%s", deviceIdPrefix, i),
+                                gatewayId(deviceIdPrefix, i / devicesPerGateway)));
+            } else {
+                provisioner.get().provisionAll(Tenant.TENANT + "/" + deviceIdPrefix, 0, numberOfDevices,
+                        i -> register.get().retryDevice(String.format("%s-%s", deviceIdPrefix, i),
+                                String.format("user-%s-%s", deviceIdPrefix, i), "hono-secret"));
+            }
+        }
 
-                final String username = String.format("user-%s-%s", deviceIdPrefix, i);
-                final String deviceId = String.format("%s-%s", deviceIdPrefix, i);
+        try (TickScheduler scheduler = TickScheduler.create(runtime, commonTags)) {
+
+            for (int i = 0; i < numberOfConnections; i++) {
+
+                final String username;
+                final String deviceId;
+                final List<String> gatewayDevices;
+
+                if (devicesPerGateway > 0) {
+                    username = String.format("gw-%s-%s", deviceIdPrefix, i);
+                    deviceId = gatewayId(deviceIdPrefix, i);
+                    gatewayDevices = new ArrayList<>(devicesPerGateway);
+                    final int end = Math.min(numberOfDevices, (i + 1) * devicesPerGateway);
+                    for (int j = i * devicesPerGateway; j < end; j++) {
+                        gatewayDevices.add(String.format("%s-%s", deviceIdPrefix, j));
+                    }
+                } else {
+                    username = String.format("user-%s-%s", deviceIdPrefix, i);
+                    deviceId = String.format("%s-%s", deviceIdPrefix, i);
+                    gatewayDevices = Collections.emptyList();
+                }
 
                 System.out.format("New device - user: %s, clientId: %s%n", username, deviceId);
 
-                final Device device = new Device(runtime.getVertx(), username, deviceId, Tenant.TENANT, "hono-secret",
-                        register, connected, stats);
-
-                final Runnable ticker;
-
-                switch (config.getType()) {
-                case EVENT:
-                    ticker = () -> device.tickEvent();
-                    break;
-                default:
-                    ticker = () -> device.tickTelemetry();
-                    break;
-                }
-
-                executor.scheduleAtFixedRate(ticker,
-                        r.nextInt((int) config.getPeriod().toMillis()), config.getPeriod().toMillis(),
-                        TimeUnit.MILLISECONDS);
+                final Device device = new Device(runtime.getVertx(), scheduler, netClient, config, username,
+                        deviceId, Tenant.TENANT, "hono-secret", gatewayDevices, register, connected, stats, tls,
+                        connectController);
+                device.start();
 
             }
 
             Thread.sleep(Long.MAX_VALUE);
-        } finally {
-            executor.shutdown();
         }
 
     }
 
+    private static String gatewayId(final String deviceIdPrefix, final int gateway) {
+        return String.format("%s-gw-%s", deviceIdPrefix, gateway);
+    }
+
 }
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.glutamate.lang.Environment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+/**
+ * Process wide admission control for MQTT connects.
+ * <p>
+ * Connect attempts get queued and are admitted by a token bucket, limiting the connects per second, and by a limit
+ * of concurrent connects in progress. Either limit is disabled when set to zero.
+ */
+public class ConnectController {
+
+    private static final class Request {
+        private final Context context;
+        private final Runnable connect;
+        private final long queued;
+
+        private Request(final Context context, final Runnable connect, final long queued) {
+            this.context = context;
+            this.connect = connect;
+            this.queued = queued;
+        }
+    }
+
+    private final double rate;
+    private final double burst;
+    private final int maxConcurrent;
+
+    private final Queue<Request> queue = new ArrayDeque<>();
+
+    private double tokens;
+    private long lastRefill;
+    private int inProgress;
+
+    private final Timer waitTimer;
+    private final Timer successTimer;
+    private final Timer failureTimer;
+
+    public ConnectController(final Vertx vertx, final MeterRegistry registry, final Tags tags, final double rate,
+            final double burst, final int maxConcurrent) {
+
+        this.rate = rate;
+        this.burst = Math.max(1.0, burst);
+        this.maxConcurrent = maxConcurrent;
+
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+
+        registry.gauge("connects_queued", tags, this, ConnectController::queued);
+        registry.gauge("connects_in_progress", tags, this, ConnectController::inProgress);
+        this.waitTimer = registry.timer("connects_wait", tags);
+        this.successTimer = registry.timer("connects_duration", tags.and("result", "success"));
+        this.failureTimer = registry.timer("connects_duration", tags.and("result", "failure"));
+
+        if (rate > 0) {
+            // refill often enough to admit single connects, but don't spin
+            final long period = Math.max(1, Math.min(100, (long) (1_000.0 / rate)));
+            vertx.setPeriodic(period, v -> admit());
+        }
+    }
+
+    public static ConnectController fromEnv(final Vertx vertx, final MeterRegistry registry, final Tags tags) {
+        final double rate = Environment.getAs("CONNECT_RATE", 0.0, Double::parseDouble);
+        return new ConnectController(vertx, registry, tags,
+                rate,
+                Environment.getAs("CONNECT_BURST", rate, Double::parseDouble),
+                Environment.getAs("CONNECT_MAX_CONCURRENT", 0, Integer::parseInt));
+    }
+
+    /**
+     * Calculate the next reconnect delay, using decorrelated jitter.
+     *
+     * @param previous The previous delay, or zero if there was none.
+     * @param base The base delay.
+     * @param max The maximum delay.
+     * @param random The source of randomness.
+     * @return The next delay, between {@code base} and {@code max}.
+     */
+    public static long backoff(final long previous, final long base, final long max, final Random random) {
+        final long upper = Math.max(base, Math.min(max, Math.max(previous, base) * 3));
+        if (upper <= base) {
+            return base;
+        }
+        return base + (long) (random.nextDouble() * (upper - base));
+    }
+
+    /**
+     * Request a connect.
+     * <p>
+     * Once admitted, the connect will be run on the provided context. The caller must report the result, using
+     * {@link #completed(long, boolean)}.
+     *
+     * @param context The context to run the connect on.
+     * @param connect The connect operation.
+     */
+    public void request(final Context context, final Runnable connect) {
+        synchronized (this) {
+            this.queue.add(new Request(context, connect, System.nanoTime()));
+        }
+        admit();
+    }
+
+    /**
+     * Report the result of an admitted connect.
+     *
+     * @param start The time the connect was started, in {@link System#nanoTime()}.
+     * @param success Whether the connect was successful.
+     */
+    public void completed(final long start, final boolean success) {
+        (success ? this.successTimer : this.failureTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        synchronized (this) {
+            this.inProgress--;
+        }
+        admit();
+    }
+
+    private synchronized void admit() {
+
+        final long now = System.nanoTime();
+        if (this.rate > 0) {
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.rate / 1_000_000_000.0);
+            this.lastRefill = now;
+        }
+
+        while (!this.queue.isEmpty()) {
+            if (this.maxConcurrent > 0 && this.inProgress >= this.maxConcurrent) {
+                return;
+            }
+            if (this.rate > 0) {
+                if (this.tokens < 1.0) {
+                    return;
+                }
+                this.tokens -= 1.0;
+            }
+
+            final Request request = this.queue.poll();
+            this.inProgress++;
+            this.waitTimer.record(now - request.queued, TimeUnit.NANOSECONDS);
+            request.context.runOnContext(v -> request.connect.run());
+        }
+
+    }
+
+    private synchronized double queued() {
+        return this.queue.size();
+    }
+
+    private synchronized double inProgress() {
+        return this.inProgress;
+    }
+}
@@ -12,26 +12,36 @@ package de.dentrassi.hono.simulator.mqtt;
 
 import static io.glutamate.lang.Environment.is;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import de.dentrassi.hono.demo.common.Payload;
+import de.dentrassi.hono.demo.common.PayloadHeader;
+import de.dentrassi.hono.demo.common.ProducerConfig;
 import de.dentrassi.hono.demo.common.Registration;
+import de.dentrassi.hono.demo.common.TickScheduler;
 import de.dentrassi.hono.demo.common.Tls;
+import de.dentrassi.hono.demo.common.TlsStatistics;
 import de.dentrassi.hono.simulator.mqtt.vertx.MqttClientImpl;
 import io.glutamate.lang.Environment;
 import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetSocket;
 import io.vertx.core.net.OpenSSLEngineOptions;
-import io.vertx.mqtt.MqttClient;
 import io.vertx.mqtt.MqttClientOptions;
 import io.vertx.mqtt.MqttConnectionException;
 
 public class Device {
 
-    private final MqttClient client;
+    private final MqttClientImpl client;
 
     private final Payload payload;
 
@@ -54,6 +64,23 @@ public class Device {
 
     private static final long RECONNECT_DELAY = Application.envOrElse("RECONNECT_DELAY", Long::parseLong, 2_000L);
     private static final int RECONNECT_JITTER = Application.envOrElse("RECONNECT_JITTER", Integer::parseInt, 2_000);
+    private static final long RECONNECT_MAX_DELAY = Environment.getAs("RECONNECT_MAX_DELAY", 60_000L,
+            Long::parseLong);
+
+    private static final long ACK_TIMEOUT = TimeUnit.MILLISECONDS
+            .toNanos(Environment.getAs("ACK_TIMEOUT_MS", 10_000L, Long::parseLong));
+
+    private static final long CONNACK_TIMEOUT = Environment.getAs("CONNACK_TIMEOUT_MS", 10_000L, Long::parseLong);
+
+    public static final int MAX_IN_FLIGHT_PER_DEVICE = Environment.getAs("MAX_IN_FLIGHT_PER_DEVICE", 10,
+            Integer::parseInt);
+    public static final int FLUSH_BATCH = Environment.getAs("MQTT_FLUSH_BATCH", 1, Integer::parseInt);
+    public static final long FLUSH_DELAY_US = Environment.getAs("MQTT_FLUSH_DELAY_US", 0L, Long::parseLong);
+    public static final int FLUSH_CONSOLIDATION = Environment.getAs("MQTT_FLUSH_CONSOLIDATION", 0,
+            Integer::parseInt);
+
+    public static final int MAX_BACKLOG_PER_DEVICE = Environment.getAs("MAX_BACKLOG_PER_DEVICE", 0,
+            Integer::parseInt);
 
     private final Random random = new Random();
 
@@ -61,11 +88,78 @@ public class Device {
 
     private final Statistics stats;
 
-    private long connectTimer = -1;
+    private final TlsStatistics tls;
+
+    private final ProducerConfig config;
+
+    private final ConnectController connectController;
+
+    private final TickScheduler.Task task;
+
+    private final Schedule[] schedules;
+
+    private final MqttQoS qos;
+
+    // from scheduling a connect, until its result
+    private boolean connectScheduled;
+
+    private long connectStart;
+
+    // increased for every connect attempt, results of older attempts are ignored
+    private long connectAttempt;
+
+    private long connackTimer = -1;
+
+    // the last reconnect delay, zero after a successful connect
+    private long backoff;
+
+    // messages waiting for an acknowledgement
+    private int inFlight;
 
-    public Device(final Vertx vertx, final String username, final String deviceId, final String tenant,
-            final String password, final Optional<Registration> register, final AtomicLong connectedCount,
-            final Statistics stats) {
+    // schedules of messages which are due, but did not fit into the in-flight window yet. Not just a count, as with
+    // a gateway the entries belong to different logical devices, and each one needs the topic of its device. The
+    // entries are shared, so a full backlog still costs only a reference per message.
+    private final Deque<Schedule> backlog = new ArrayDeque<>(0);
+
+    private final List<String> gatewayDevices;
+
+    private boolean gatewayDevicesRegistered;
+
+    /**
+     * A publishing schedule, for the device itself, or for a device behind the gateway.
+     */
+    private final class Schedule implements Runnable {
+
+        private final String topic;
+        private final long deviceKey;
+        private final TickScheduler.Task task;
+
+        private long sequence;
+
+        private Schedule(final String topic, final String deviceId, final TickScheduler scheduler,
+                final TickScheduler.Task sibling) {
+            this.topic = topic;
+            this.deviceKey = PayloadHeader.deviceKey(deviceId);
+            this.task = sibling == null ? scheduler.register(this) : scheduler.register(this, sibling);
+        }
+
+        @Override
+        public void run() {
+            tick(this);
+        }
+    }
+
+    /**
+     * Create a new device.
+     *
+     * @param gatewayDevices The devices to publish for, acting as a gateway. If empty, the device publishes for
+     *        itself.
+     */
+    public Device(final Vertx vertx, final TickScheduler scheduler, final NetClient netClient,
+            final ProducerConfig config, final String username, final String deviceId, final String tenant,
+            final String password, final List<String> gatewayDevices, final Optional<Registration> register,
+            final AtomicLong connectedCount,
+            final Statistics stats, final TlsStatistics tls, final ConnectController connectController) {
 
         this.vertx = vertx;
         this.register = register.orElse(null);
@@ -76,6 +170,22 @@ public class Device {
 
         this.connectedCount = connectedCount;
         this.stats = stats;
+        this.tls = tls;
+        this.config = config;
+        this.connectController = connectController;
+        this.gatewayDevices = gatewayDevices;
+
+        final String endpoint;
+        switch (config.getType()) {
+        case EVENT:
+            endpoint = "event";
+            this.qos = MqttQoS.AT_LEAST_ONCE;
+            break;
+        default:
+            endpoint = "telemetry";
+            this.qos = MqttQoS.AT_MOST_ONCE;
+            break;
+        }
 
         this.payload = Payload.payload();
 
@@ -86,6 +196,57 @@ public class Device {
         options.setClientId(deviceId);
         options.setAutoKeepAlive(true);
         options.setKeepAliveTimeSeconds(10);
+        options.setMaxInflightQueue(MAX_IN_FLIGHT_PER_DEVICE);
+
+        options.setUsername(username + "@" + tenant);
+        options.setPassword(password);
+
+        this.client = new MqttClientImpl(netClient != null ? netClient : createNetClient(vertx), options);
+
+        this.client.flushBatching(FLUSH_BATCH, FLUSH_DELAY_US);
+        this.client.flushConsolidation(FLUSH_CONSOLIDATION);
+        this.client.socketHandler(this::socketConnected);
+        this.client.publishAcknowledgementHandler(this::publishAcknowledged);
+        this.client.closeHandler(v -> connectionLost(null));
+
+        // the device, its connection and its ticks, all live on the event loop of the first task
+
+        if (gatewayDevices.isEmpty()) {
+            this.schedules = new Schedule[] { new Schedule(endpoint, deviceId, scheduler, null) };
+        } else {
+            this.schedules = new Schedule[gatewayDevices.size()];
+            for (int i = 0; i < this.schedules.length; i++) {
+                final String topic = endpoint + "/" + tenant + "/" + gatewayDevices.get(i);
+                this.schedules[i] = new Schedule(topic, gatewayDevices.get(i), scheduler,
+                        i == 0 ? null : this.schedules[0].task);
+            }
+        }
+        this.task = this.schedules[0].task;
+    }
+
+    public void start() {
+        this.task.context().runOnContext(v -> {
+            scheduleConnect();
+            final int period = (int) this.config.getPeriod().toMillis();
+            for (final Schedule schedule : this.schedules) {
+                schedule.task.schedule(this.random.nextInt(period));
+            }
+        });
+    }
+
+    /**
+     * Create a new network client.
+     * <p>
+     * Devices using the same network client also share its TLS session cache.
+     *
+     * @param vertx The Vert.x instance to use.
+     * @return The new client.
+     */
+    public static NetClient createNetClient(final Vertx vertx) {
+
+        final MqttClientOptions options = new MqttClientOptions();
+
+        options.setConnectTimeout(10_000);
 
         if (Tls.insecure()) {
             options.setTrustAll(true);
@@ -95,35 +256,34 @@ public class Device {
         }
 
         options.setSsl(!Environment.getAs("DISABLE_TLS", false, Boolean::parseBoolean));
-        options.setUsername(username + "@" + tenant);
-        options.setPassword(password);
 
         is("WITH_OPENSSL", () -> {
-            System.out.println("Using OpenSSL for MQTT");
             options.setSslEngineOptions(new OpenSSLEngineOptions());
         });
 
-        this.client = new MqttClientImpl(vertx, options);
-
-        this.client.publishCompletionHandler(this::publishComplete);
-        this.client.closeHandler(v -> connectionLost(null));
-
-        scheduleConnect();
+        return MqttClientImpl.createNetClient(vertx, options);
     }
 
     private void scheduleConnect() {
-        if (connectTimer >= 0) {
-            // already scheduled
+        if (this.connectScheduled) {
             return;
         }
-        this.connectTimer = this.vertx.setTimer(getConnectDelay(), v -> startConnect());
+        this.connectScheduled = true;
+        this.vertx.setTimer(getConnectDelay(),
+                v -> this.connectController.request(this.task.context(), this::startConnect));
     }
 
     private void startConnect() {
 
-        this.connectTimer = -1;
+        final long attempt = ++this.connectAttempt;
+        this.connectStart = System.nanoTime();
 
         this.client.connect(HONO_MQTT_PORT, HONO_MQTT_HOST, HONO_MQTT_HOST, connected -> {
+            if (attempt != this.connectAttempt) {
+                // already timed out
+                return;
+            }
+            connectCompleted(connected.succeeded());
             if (connected.failed()) {
                 connectionFailed(connected.cause());
             } else {
@@ -133,51 +293,135 @@ public class Device {
 
     }
 
+    private void connectCompleted(final boolean success) {
+        this.connectAttempt++;
+        this.connectScheduled = false;
+        if (this.connackTimer >= 0) {
+            this.vertx.cancelTimer(this.connackTimer);
+            this.connackTimer = -1;
+        }
+        this.connectController.completed(this.connectStart, success);
+    }
+
+    private void socketConnected(final NetSocket socket) {
+        if (socket.isSsl()) {
+            this.tls.handshake(socket.sslSession(), System.nanoTime() - this.connectStart);
+        }
+
+        // the broker may accept the connection, but never answer the CONNECT
+        final long attempt = this.connectAttempt;
+        this.connackTimer = this.vertx.setTimer(CONNACK_TIMEOUT, v -> {
+            if (attempt != this.connectAttempt) {
+                return;
+            }
+            this.connackTimer = -1;
+            connectCompleted(false);
+            connectionFailed(new TimeoutException(String.format("No CONNACK within %s ms", CONNACK_TIMEOUT)));
+            socket.close();
+        });
+    }
+
     private long getConnectDelay() {
 
-        final long delay = RECONNECT_DELAY + this.random.nextInt(RECONNECT_JITTER);
+        final long delay;
+        if (this.backoff <= 0) {
+            // first attempt after being connected, spread out
+            delay = RECONNECT_DELAY + this.random.nextInt(RECONNECT_JITTER);
+            this.backoff = RECONNECT_DELAY;
+        } else {
+            delay = ConnectController.backoff(this.backoff, RECONNECT_DELAY, RECONNECT_MAX_DELAY, this.random);
+            this.backoff = delay;
+        }
+
         if (delay <= 0) {
             return 1;
         }
         return delay;
     }
 
-    public void tickTelemetry() {
-        this.vertx.runOnContext(v -> {
-            doPublish("telemetry", MqttQoS.AT_MOST_ONCE);
-        });
-    }
+    private void tick(final Schedule schedule) {
+        // keep a fixed rate, independent of how long publishing took
+        schedule.task.scheduleAt(schedule.task.deadline() + this.config.getPeriod().toMillis());
 
-    public void tickEvent() {
-        this.vertx.runOnContext(v -> {
-            doPublish("event", MqttQoS.AT_LEAST_ONCE);
-        });
+        this.stats.scheduled();
+
+        if (!this.client.isConnected()) {
+            this.stats.droppedNotConnected();
+            return;
+        }
+
+        expireInFlight();
+        sendPending();
+
+        if (!this.backlog.isEmpty() || !trySend(schedule)) {
+            if (this.backlog.size() < MAX_BACKLOG_PER_DEVICE) {
+                this.backlog.add(schedule);
+                this.stats.backlog();
+            } else {
+                this.stats.droppedWindowFull();
+            }
+        }
     }
 
+    /**
+     * Try sending a message, if the in-flight window allows it.
+     *
+     * @return {@code true} if the message was sent, {@code false} otherwise.
+     */
+    private boolean trySend(final Schedule schedule) {
+        if (this.qos != MqttQoS.AT_MOST_ONCE && this.inFlight >= MAX_IN_FLIGHT_PER_DEVICE) {
+            return false;
+        }
 
-    private void doPublish( final String topic, final MqttQoS qos) {
+        doPublish(schedule, this.qos);
+        return true;
+    }
 
-        stats.scheduled();
+    private void sendPending() {
+        while (!this.backlog.isEmpty() && this.client.isConnected() && trySend(this.backlog.peek())) {
+            this.backlog.poll();
+            this.stats.backlogSent();
+        }
+    }
 
-        if (!this.client.isConnected()) {
+    private void expireInFlight() {
+        if (this.inFlight <= 0) {
             return;
         }
 
-        this.client.publish(topic, this.payload.getBuffer(), qos, false, false);
+        final int expired = this.client.expireInFlight(System.nanoTime() - ACK_TIMEOUT);
+        if (expired > 0) {
+            this.inFlight -= expired;
+            this.stats.timeout(expired);
+        }
+    }
+
+    private void doPublish(final Schedule schedule, final MqttQoS qos) {
+
+        final int before = this.client.inFlight();
+
+        this.client.publish(schedule.topic,
+                this.payload.getBuffer(PayloadHeader.Protocol.MQTT, schedule.deviceKey, schedule.sequence++),
+                qos, false, false);
 
         switch (qos) {
         case AT_MOST_ONCE:
             stats.sent();
             break;
-        case AT_LEAST_ONCE:
-            break;
         default:
+            final int after = this.client.inFlight();
+            if (after > before) {
+                this.inFlight++;
+                stats.published(after);
+            }
             break;
         }
     }
 
-    private void publishComplete(final Integer packetId) {
-        stats.sent();
+    private void publishAcknowledged(final int packetId, final long sent) {
+        this.inFlight--;
+        stats.acknowledged(System.nanoTime() - sent);
+        sendPending();
     }
 
     private void connectionEstablished() {
@@ -186,8 +430,37 @@ public class Device {
             this.connectedCount.incrementAndGet();
         }
 
+        this.backoff = 0;
+
         System.out.format("Connection established%n");
 
+        registerGatewayDevices();
+    }
+
+    private void registerGatewayDevices() {
+        if (this.gatewayDevicesRegistered || this.gatewayDevices.isEmpty()
+                || this.register == null || !AUTO_REGISTER) {
+            return;
+        }
+
+        this.gatewayDevicesRegistered = true;
+
+        this.vertx.<Void>executeBlocking(promise -> {
+            try {
+                for (final String device : this.gatewayDevices) {
+                    this.register.gatewayDevice(device, this.deviceId);
+                }
+                promise.complete();
+            } catch (final Exception e) {
+                promise.fail(e);
+            }
+        }, false, result -> {
+            if (result.failed()) {
+                System.out.format("Failed to register gateway devices: %s%n", result.cause().getMessage());
+                // try again with the next connection
+                this.gatewayDevicesRegistered = false;
+            }
+        });
     }
 
     protected void connectionFailed(final Throwable throwable) {
@@ -202,7 +475,10 @@ public class Device {
             case CONNECTION_REFUSED_NOT_AUTHORIZED:
                 //$FALL-THROUGH$
             case CONNECTION_REFUSED_IDENTIFIER_REJECTED:
-                register();
+                if (register()) {
+                    // reconnect once the registration is done
+                    return;
+                }
                 break;
             default:
                 break;
@@ -224,17 +500,44 @@ public class Device {
             this.connectedCount.decrementAndGet();
         }
 
+        if (this.inFlight > 0) {
+            this.stats.abandoned(this.inFlight);
+            this.inFlight = 0;
+        }
+
+        if (!this.backlog.isEmpty()) {
+            this.stats.backlogDropped(this.backlog.size());
+            this.backlog.clear();
+        }
+
         scheduleConnect();
     }
 
-    private void register() {
-        if (this.register != null && AUTO_REGISTER) {
-            System.out.println("Failed to connect ... try auto register");
+    /**
+     * Register the device, and schedule a new connect afterwards.
+     * <p>
+     * Calling the registry blocks, and the event loop is shared with many other devices, so this runs as blocking
+     * code.
+     *
+     * @return {@code true} if the registration was started, {@code false} if auto registration is disabled.
+     */
+    private boolean register() {
+        if (this.register == null || !AUTO_REGISTER) {
+            return false;
+        }
+
+        System.out.println("Failed to connect ... try auto register");
+
+        this.vertx.<Void>executeBlocking(promise -> {
             try {
                 this.register.device(this.deviceId, this.username, this.password);
+                promise.complete();
             } catch (final Exception e) {
+                promise.fail(e);
             }
-        }
+        }, false, result -> scheduleConnect());
+
+        return true;
     }
 
 }
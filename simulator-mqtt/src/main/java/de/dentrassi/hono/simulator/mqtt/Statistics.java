@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2018 Red Hat Inc and others.
+ * Copyright (c) 2018, 2019 Red Hat Inc and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,18 +11,47 @@
 
 package de.dentrassi.hono.simulator.mqtt;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.demo.common.LatencyHistograms;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 
 public class Statistics {
 
     private final Counter ticked;
     private final Counter sent;
+    private final Counter timeout;
+    private final Counter abandoned;
+    private final Counter droppedNotConnected;
+    private final Counter droppedWindowFull;
+    private final Counter droppedConnectionLost;
+    private final AtomicLong backlog;
+    private final Timer durations;
+    private final AtomicLong inFlight;
+    private final DistributionSummary connectionInFlight;
+
+    private final LatencyHistograms.Series latency;
 
-    public Statistics(final MeterRegistry metrics, final Tags commonTags) {
+    public Statistics(final MeterRegistry metrics, final Tags commonTags, final LatencyHistograms histograms) {
         this.sent = metrics.counter("messages_sent", commonTags);
         this.ticked = metrics.counter("messages_scheduled", commonTags);
+        this.timeout = metrics.counter("messages_timeout", commonTags);
+        this.abandoned = metrics.counter("messages_abandoned", commonTags);
+        this.droppedNotConnected = metrics.counter("messages_dropped", commonTags.and("reason", "not_connected"));
+        this.droppedWindowFull = metrics.counter("messages_dropped", commonTags.and("reason", "window_full"));
+        this.droppedConnectionLost = metrics.counter("messages_dropped",
+                commonTags.and("reason", "connection_lost"));
+        this.backlog = metrics.gauge("messages_backlog", commonTags, new AtomicLong());
+        this.durations = metrics.timer("messages_duration", commonTags);
+        this.inFlight = metrics.gauge("messages_in_flight", commonTags, new AtomicLong());
+        this.connectionInFlight = metrics.summary("messages_in_flight_connection", commonTags);
+
+        this.latency = histograms.series("messages_latency_actual", commonTags);
     }
 
     public void sent() {
@@ -32,4 +61,72 @@ public class Statistics {
     public void scheduled() {
         this.ticked.increment();
     }
+
+    public void droppedNotConnected() {
+        this.droppedNotConnected.increment();
+    }
+
+    public void droppedWindowFull() {
+        this.droppedWindowFull.increment();
+    }
+
+    public void backlog() {
+        this.backlog.incrementAndGet();
+    }
+
+    public void backlogSent() {
+        this.backlog.decrementAndGet();
+    }
+
+    /**
+     * Record messages, which were still in the backlog when the connection was lost.
+     *
+     * @param count The number of messages.
+     */
+    public void backlogDropped(final int count) {
+        this.backlog.addAndGet(-count);
+        this.droppedConnectionLost.increment(count);
+    }
+
+    /**
+     * Record a message which waits for an acknowledgement.
+     *
+     * @param connectionInFlight The number of messages in flight on the connection, including this one.
+     */
+    public void published(final int connectionInFlight) {
+        this.inFlight.incrementAndGet();
+        this.connectionInFlight.record(connectionInFlight);
+    }
+
+    /**
+     * Record an acknowledged message.
+     *
+     * @param duration The time from publishing to the acknowledgement, in nanoseconds.
+     */
+    public void acknowledged(final long duration) {
+        this.inFlight.decrementAndGet();
+        this.sent.increment();
+        this.durations.record(duration, TimeUnit.NANOSECONDS);
+        this.latency.record(duration);
+    }
+
+    /**
+     * Record messages, which didn't get acknowledged in time.
+     *
+     * @param count The number of messages.
+     */
+    public void timeout(final int count) {
+        this.inFlight.addAndGet(-count);
+        this.timeout.increment(count);
+    }
+
+    /**
+     * Record messages, which were in flight when the connection was lost.
+     *
+     * @param count The number of messages.
+     */
+    public void abandoned(final int count) {
+        this.inFlight.addAndGet(-count);
+        this.abandoned.increment(count);
+    }
 }
@@ -36,6 +36,7 @@ import io.netty.handler.codec.mqtt.MqttQoS;
 import io.netty.handler.codec.mqtt.MqttSubscribePayload;
 import io.netty.handler.codec.mqtt.MqttTopicSubscription;
 import io.netty.handler.codec.mqtt.MqttUnsubscribePayload;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -46,6 +47,7 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.net.NetClient;
 import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
 import io.vertx.core.net.impl.VertxHandler;
 import io.vertx.mqtt.MqttClient;
 import io.vertx.mqtt.MqttClientOptions;
@@ -59,10 +61,13 @@ import io.vertx.mqtt.messages.MqttSubAckMessage;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -77,11 +82,28 @@ import static io.netty.handler.codec.mqtt.MqttQoS.*;
  */
 public class MqttClientImpl implements MqttClient {
 
+  /**
+   * Handler for acknowledged messages
+   */
+  @FunctionalInterface
+  public interface PublishAcknowledgementHandler {
+    /**
+     * Called when a QoS 1 message was acknowledged with PUBACK, or a QoS 2 message with PUBCOMP
+     *
+     * @param packetId the packet ID of the message
+     * @param sent the time the message was sent, in {@link System#nanoTime()}
+     */
+    void handle(int packetId, long sent);
+  }
+
   // patterns for topics validation
   private static final Pattern validTopicNamePattern = Pattern.compile("^[^#+\\u0000]+$");
   private static final Pattern validTopicFilterPattern = Pattern.compile("^(#|((\\+(?![^/]))?([^#+]*(/\\+(?![^/]))?)*(/#)?))$");
   private static final Logger log = LoggerFactory.getLogger(MqttClientImpl.class);
 
+  // the maximum number of dispatched calls to run in a single event loop turn
+  private static final int MAX_DISPATCH_BATCH = 1024;
+
   private static final int MAX_MESSAGE_ID = 65535;
   private static final int MAX_TOPIC_LEN = 65535;
   private static final int MIN_TOPIC_LEN = 1;
@@ -91,43 +113,61 @@ public class MqttClientImpl implements MqttClient {
 
   private final MqttClientOptions options;
   private final NetClient client;
-  private NetSocketInternal connection;
-  private Context ctx;
+  // written on connect, read from any thread
+  private volatile NetSocketInternal connection;
+  private volatile Context ctx;
 
   // handler to call when a publish is complete
-  private Handler<Integer> publishCompletionHandler;
+  private volatile Handler<Integer> publishCompletionHandler;
   // handler to call when a unsubscribe request is completed
-  private Handler<Integer> unsubscribeCompletionHandler;
+  private volatile Handler<Integer> unsubscribeCompletionHandler;
   // handler to call when a publish message comes in
-  private Handler<MqttPublishMessage> publishHandler;
+  private volatile Handler<MqttPublishMessage> publishHandler;
   // handler to call when a subscribe request is completed
-  private Handler<MqttSubAckMessage> subscribeCompletionHandler;
+  private volatile Handler<MqttSubAckMessage> subscribeCompletionHandler;
   // handler to call when a connection request is completed
-  private Handler<AsyncResult<MqttConnAckMessage>> connectHandler;
+  private volatile Handler<AsyncResult<MqttConnAckMessage>> connectHandler;
   // handler to call when a pingresp is received
-  private Handler<Void> pingrespHandler;
+  private volatile Handler<Void> pingrespHandler;
   // handler to call when a problem at protocol level happens
-  private Handler<Throwable> exceptionHandler;
+  private volatile Handler<Throwable> exceptionHandler;
   //handler to call when the remote MQTT server closes the connection
-  private Handler<Void> closeHandler;
+  private volatile Handler<Void> closeHandler;
+  // handler to call when a publish is complete, with its timing
+  private volatile PublishAcknowledgementHandler publishAcknowledgementHandler;
+  // handler to call when the network connection is established, before the CONNECT is sent
+  private volatile Handler<NetSocket> socketHandler;
 
-  // storage of PUBLISH QoS=1 messages which was not responded with PUBACK
-  private final LinkedHashMap<Integer, io.netty.handler.codec.mqtt.MqttMessage> qos1outbound = new LinkedHashMap<>();
+  // the following state belongs to the connection, and is only accessed from its event loop
 
-  // storage of PUBLISH QoS=2 messages which was not responded with PUBREC
-  // and PUBREL messages which was not responded with PUBCOMP
-  private final LinkedHashMap<Integer, io.netty.handler.codec.mqtt.MqttMessage> qos2outbound = new LinkedHashMap<>();
+  // storage of PUBLISH QoS=1 messages which was not responded with PUBACK, PUBLISH QoS=2 messages which was not
+  // responded with PUBREC, and PUBREL messages which was not responded with PUBCOMP
+  private final PacketIdTable<io.netty.handler.codec.mqtt.MqttMessage> outbound;
 
-  // storage of PUBLISH messages which was responded with PUBREC
-  private final LinkedHashMap<Integer, MqttMessage> qos2inbound = new LinkedHashMap<>();
+  // storage of PUBLISH messages which was responded with PUBREC, created when required, as packet IDs are chosen
+  // by the server
+  private PacketIdTable<MqttMessage> qos2inbound;
 
   // counter for the message identifier
   private int messageIdCounter;
 
-  // total amount of unacknowledged packets
-  private int countInflightQueue;
+  private volatile boolean isConnected;
+
+  // write batching of PUBLISH messages, configured before connecting
+  private int flushBatchSize = 1;
+  private long flushDelayMicros;
+  private int flushConsolidation;
+
+  // PUBLISH messages written, but not flushed yet
+  private int unflushed;
+  private boolean flushScheduled;
+  private final Runnable flushTask = this::flushScheduled;
 
-  private boolean isConnected;
+  // calls from other threads, waiting to be run on the event loop of the connection
+  private final Queue<Handler<Void>> dispatched = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  // running dispatched calls, their PUBLISH messages get flushed once at the end
+  private boolean draining;
 
   /**
    * Constructor
@@ -136,13 +176,66 @@ public class MqttClientImpl implements MqttClient {
    * @param options MQTT client options
    */
   public MqttClientImpl(final Vertx vertx, final MqttClientOptions options) {
+    this(createNetClient(vertx, options), options);
+  }
+
+  /**
+   * Constructor, using an existing network client
+   * <p>
+   * The network client may be shared between multiple MQTT clients, it will not be closed by this client. Only the
+   * MQTT specific options are used from the provided options.
+   *
+   * @param client the network client to use
+   * @param options MQTT client options
+   */
+  public MqttClientImpl(final NetClient client, final MqttClientOptions options) {
+    this.client = client;
+    this.options = options;
+    this.outbound = new PacketIdTable<>(options.getMaxInflightQueue());
+  }
+
+  /**
+   * Coalesce PUBLISH messages, flushing them once instead of after each message
+   * <p>
+   * Written messages are flushed once {@code maxMessages} got written, or once the delay elapsed, whichever
+   * comes first. With a delay of zero, messages are flushed at the end of the current event loop turn. Other
+   * messages, like acknowledgements, are still flushed immediately, and flush pending messages with them.
+   *
+   * @param maxMessages the maximum number of messages to write before flushing, {@code 1} to disable batching
+   * @param maxDelayMicros the maximum time, in microseconds, to wait before flushing
+   * @return current MQTT client instance
+   */
+  public MqttClientImpl flushBatching(final int maxMessages, final long maxDelayMicros) {
+    this.flushBatchSize = Math.max(1, maxMessages);
+    this.flushDelayMicros = Math.max(0, maxDelayMicros);
+    return this;
+  }
+
+  /**
+   * Add Netty's {@link FlushConsolidationHandler} to the pipeline of new connections
+   *
+   * @param explicitFlushAfterFlushes the number of flushes to consolidate, {@code 0} to disable
+   * @return current MQTT client instance
+   */
+  public MqttClientImpl flushConsolidation(final int explicitFlushAfterFlushes) {
+    this.flushConsolidation = Math.max(0, explicitFlushAfterFlushes);
+    return this;
+  }
+
+  /**
+   * Create a network client, suitable for MQTT clients
+   *
+   * @param vertx Vert.x instance
+   * @param options the network options
+   * @return a new network client
+   */
+  public static NetClient createNetClient(final Vertx vertx, final NetClientOptions options) {
 
     // copy given options
     final NetClientOptions netClientOptions = new NetClientOptions(options);
     netClientOptions.setIdleTimeout(DEFAULT_IDLE_TIMEOUT);
 
-    this.client = vertx.createNetClient(netClientOptions);
-    this.options = options;
+    return vertx.createNetClient(netClientOptions);
   }
 
   /**
@@ -180,6 +273,12 @@ public class MqttClientImpl implements MqttClient {
         log.info(String.format("Connection with %s:%d established successfully", host, port));
 
         final NetSocketInternal soi = (NetSocketInternal) done.result();
+
+        final Handler<NetSocket> socketHandler = socketHandler();
+        if (socketHandler != null) {
+          socketHandler.handle(soi);
+        }
+
         final ChannelPipeline pipeline = soi.channelHandlerContext().pipeline();
         this.connectHandler = connectHandler;
 
@@ -280,52 +379,47 @@ public class MqttClientImpl implements MqttClient {
   @Override
   public MqttClient publish(final String topic, final Buffer payload, final MqttQoS qosLevel, final boolean isDup, final boolean isRetain, final Handler<AsyncResult<Integer>> publishSentHandler) {
 
-    io.netty.handler.codec.mqtt.MqttMessage publish;
-    MqttPublishVariableHeader variableHeader;
-    synchronized (this) {
-      if (countInflightQueue >= options.getMaxInflightQueue()) {
-        final String msg = String.format("Attempt to exceed the limit of %d inflight messages", options.getMaxInflightQueue());
-        log.error(msg);
-        final MqttException exception = new MqttException(MqttException.MQTT_INFLIGHT_QUEUE_FULL, msg);
-        if (publishSentHandler != null) {
-          ctx.runOnContext(v -> publishSentHandler.handle(Future.failedFuture(exception)));
-        }
-        return this;
-      }
+    if (dispatch(v -> publish(topic, payload, qosLevel, isDup, isRetain, publishSentHandler))) {
+      return this;
+    }
 
-      if (!isValidTopicName(topic)) {
-        final String msg = String.format("Invalid Topic Name - %s. It mustn't contains wildcards: # and +. Also it can't contains U+0000(NULL) chars", topic);
-        log.error(msg);
-        final MqttException exception = new MqttException(MqttException.MQTT_INVALID_TOPIC_NAME, msg);
-        if (publishSentHandler != null) {
-          ctx.runOnContext(v -> publishSentHandler.handle(Future.failedFuture(exception)));
-        }
-        return this;
+    if (outbound.size() >= Math.min(options.getMaxInflightQueue(), MAX_MESSAGE_ID)) {
+      final String msg = String.format("Attempt to exceed the limit of %d inflight messages", options.getMaxInflightQueue());
+      // expected when the caller relies on the limit, and reported through the handler
+      log.debug(msg);
+      final MqttException exception = new MqttException(MqttException.MQTT_INFLIGHT_QUEUE_FULL, msg);
+      if (publishSentHandler != null) {
+        ctx.runOnContext(v -> publishSentHandler.handle(Future.failedFuture(exception)));
       }
+      return this;
+    }
 
-      final MqttFixedHeader fixedHeader = new MqttFixedHeader(
-        MqttMessageType.PUBLISH,
-        isDup,
-        qosLevel,
-        isRetain,
-        0
-      );
-      final ByteBuf buf = Unpooled.copiedBuffer(payload.getBytes());
-      variableHeader = new MqttPublishVariableHeader(topic, nextMessageId());
-      publish = MqttMessageFactory.newMessage(fixedHeader, variableHeader, buf);
-      switch (qosLevel) {
-        case AT_LEAST_ONCE:
-          qos1outbound.put(variableHeader.messageId(), publish);
-          countInflightQueue++;
-          break;
-        case EXACTLY_ONCE:
-          qos2outbound.put(variableHeader.messageId(), publish);
-          countInflightQueue++;
-          break;
+    if (!isValidTopicName(topic)) {
+      final String msg = String.format("Invalid Topic Name - %s. It mustn't contains wildcards: # and +. Also it can't contains U+0000(NULL) chars", topic);
+      log.error(msg);
+      final MqttException exception = new MqttException(MqttException.MQTT_INVALID_TOPIC_NAME, msg);
+      if (publishSentHandler != null) {
+        ctx.runOnContext(v -> publishSentHandler.handle(Future.failedFuture(exception)));
       }
+      return this;
+    }
+
+    final MqttFixedHeader fixedHeader = new MqttFixedHeader(
+      MqttMessageType.PUBLISH,
+      isDup,
+      qosLevel,
+      isRetain,
+      0
+    );
+    final ByteBuf buf = Unpooled.copiedBuffer(payload.getBytes());
+    final MqttPublishVariableHeader variableHeader = new MqttPublishVariableHeader(topic,
+      qosLevel != AT_MOST_ONCE ? nextOutboundMessageId() : nextMessageId());
+    final io.netty.handler.codec.mqtt.MqttMessage publish = MqttMessageFactory.newMessage(fixedHeader, variableHeader, buf);
+    if (qosLevel != AT_MOST_ONCE) {
+      outbound.put(variableHeader.messageId(), publish, System.nanoTime());
     }
 
-    this.write(publish);
+    this.writeBatched(publish);
     if (publishSentHandler != null) {
       publishSentHandler.handle(Future.succeededFuture(variableHeader.messageId()));
     }
@@ -343,7 +437,7 @@ public class MqttClientImpl implements MqttClient {
     return this;
   }
 
-  private synchronized Handler<Integer> publishCompletionHandler() {
+  private Handler<Integer> publishCompletionHandler() {
     return this.publishCompletionHandler;
   }
 
@@ -357,7 +451,7 @@ public class MqttClientImpl implements MqttClient {
     return this;
   }
 
-  private synchronized Handler<MqttPublishMessage> publishHandler() {
+  private Handler<MqttPublishMessage> publishHandler() {
     return this.publishHandler;
   }
 
@@ -371,7 +465,7 @@ public class MqttClientImpl implements MqttClient {
     return this;
   }
 
-  private synchronized Handler<MqttSubAckMessage> subscribeCompletionHandler() {
+  private Handler<MqttSubAckMessage> subscribeCompletionHandler() {
     return this.subscribeCompletionHandler;
   }
 
@@ -405,6 +499,10 @@ public class MqttClientImpl implements MqttClient {
   @Override
   public MqttClient subscribe(final Map<String, Integer> topics, final Handler<AsyncResult<Integer>> subscribeSentHandler) {
 
+    if (dispatch(v -> subscribe(topics, subscribeSentHandler))) {
+      return this;
+    }
+
     final Map<String, Integer> invalidTopics = topics.entrySet()
       .stream()
       .filter(e -> !isValidTopicFilter(e.getKey()))
@@ -455,7 +553,7 @@ public class MqttClientImpl implements MqttClient {
     return this;
   }
 
-  private synchronized Handler<Integer> unsubscribeCompletionHandler() {
+  private Handler<Integer> unsubscribeCompletionHandler() {
 
     return this.unsubscribeCompletionHandler;
   }
@@ -466,6 +564,10 @@ public class MqttClientImpl implements MqttClient {
   @Override
   public MqttClient unsubscribe(final String topic, final Handler<AsyncResult<Integer>> unsubscribeSentHandler) {
 
+    if (dispatch(v -> unsubscribe(topic, unsubscribeSentHandler))) {
+      return this;
+    }
+
     final MqttFixedHeader fixedHeader = new MqttFixedHeader(
       MqttMessageType.UNSUBSCRIBE,
       false,
@@ -487,7 +589,7 @@ public class MqttClientImpl implements MqttClient {
     return this;
   }
 
-  private synchronized Handler<AsyncResult<MqttConnAckMessage>> connectHandler() {
+  private Handler<AsyncResult<MqttConnAckMessage>> connectHandler() {
     return this.connectHandler;
   }
 
@@ -503,12 +605,12 @@ public class MqttClientImpl implements MqttClient {
    * See {@link MqttClient#pingResponseHandler(Handler)} for more details
    */
   @Override
-  public synchronized MqttClient pingResponseHandler(final Handler<Void> pingResponseHandler) {
+  public MqttClient pingResponseHandler(final Handler<Void> pingResponseHandler) {
     this.pingrespHandler = pingResponseHandler;
     return this;
   }
 
-  private synchronized Handler<Void> pingResponseHandler() {
+  private Handler<Void> pingResponseHandler() {
     return this.pingrespHandler;
   }
 
@@ -516,12 +618,12 @@ public class MqttClientImpl implements MqttClient {
    * See {@link MqttClient#exceptionHandler(Handler)} for more details
    */
   @Override
-  public synchronized MqttClient exceptionHandler(final Handler<Throwable> handler) {
+  public MqttClient exceptionHandler(final Handler<Throwable> handler) {
     exceptionHandler = handler;
     return this;
   }
 
-  private synchronized Handler<Throwable> exceptionHandler() {
+  private Handler<Throwable> exceptionHandler() {
     return this.exceptionHandler;
   }
 
@@ -529,15 +631,70 @@ public class MqttClientImpl implements MqttClient {
    * See {@link MqttClient#closeHandler(Handler)} for more details
    */
   @Override
-  public synchronized MqttClient closeHandler(final Handler<Void> closeHandler) {
+  public MqttClient closeHandler(final Handler<Void> closeHandler) {
     this.closeHandler = closeHandler;
     return this;
   }
 
-  private synchronized Handler<Void> closeHandler() {
+  private Handler<Void> closeHandler() {
     return this.closeHandler;
   }
 
+  /**
+   * Set a handler, which gets called when a publish is complete
+   * <p>
+   * This is called in addition to the publish completion handler, providing the time the message was sent.
+   *
+   * @param publishAcknowledgementHandler the handler to call
+   * @return current MQTT client instance
+   */
+  public MqttClientImpl publishAcknowledgementHandler(final PublishAcknowledgementHandler publishAcknowledgementHandler) {
+    this.publishAcknowledgementHandler = publishAcknowledgementHandler;
+    return this;
+  }
+
+  /**
+   * Get the number of messages, waiting for an acknowledgement
+   * <p>
+   * This must be called from the event loop of the connection.
+   *
+   * @return the number of messages in flight
+   */
+  public int inFlight() {
+    return this.outbound.size();
+  }
+
+  /**
+   * Give up on messages, which didn't get acknowledged in time
+   * <p>
+   * This frees the storage of those messages. An acknowledgement received later on will be ignored. This must be
+   * called from the event loop of the connection.
+   *
+   * @param sentBefore the time, in {@link System#nanoTime()}, messages sent before will be expired
+   * @return the number of expired messages
+   */
+  public int expireInFlight(final long sentBefore) {
+    return this.outbound.removeOlderThan(sentBefore);
+  }
+
+  /**
+   * Set a handler, which gets called when the network connection is established
+   * <p>
+   * The handler is called before the CONNECT message is sent. For TLS connections, the handshake is already
+   * complete at this point.
+   *
+   * @param socketHandler the handler to call
+   * @return current MQTT client instance
+   */
+  public MqttClientImpl socketHandler(final Handler<NetSocket> socketHandler) {
+    this.socketHandler = socketHandler;
+    return this;
+  }
+
+  private Handler<NetSocket> socketHandler() {
+    return this.socketHandler;
+  }
+
   /**
    * See {@link MqttClient#ping()} for more details
    */
@@ -555,12 +712,12 @@ public class MqttClientImpl implements MqttClient {
   }
 
   @Override
-  public synchronized String clientId() {
+  public String clientId() {
     return this.options.getClientId();
   }
 
   @Override
-  public synchronized boolean isConnected() {
+  public boolean isConnected() {
     return this.isConnected;
   }
 
@@ -597,9 +754,11 @@ public class MqttClientImpl implements MqttClient {
 
     final io.netty.handler.codec.mqtt.MqttMessage pubrec = MqttMessageFactory.newMessage(fixedHeader, variableHeader, null);
 
-    synchronized (this) {
-      qos2inbound.put(publishMessage.messageId(), publishMessage);
+    if (qos2inbound == null) {
+      qos2inbound = new PacketIdTable<>(PacketIdTable.MAX_CAPACITY);
     }
+    qos2inbound.remove(publishMessage.messageId());
+    qos2inbound.put(publishMessage.messageId(), publishMessage, System.nanoTime());
     this.write(pubrec);
   }
 
@@ -636,14 +795,18 @@ public class MqttClientImpl implements MqttClient {
 
     final io.netty.handler.codec.mqtt.MqttMessage pubrel = MqttMessageFactory.newMessage(fixedHeader, variableHeader, null);
 
-    synchronized (this) {
-      qos2outbound.put(publishMessageId, pubrel);
+    if (!outbound.replace(publishMessageId, pubrel)) {
+      log.warn("Received PUBREC packet without having related PUBLISH packet in storage");
     }
     this.write(pubrel);
   }
 
   private void initChannel(final ChannelPipeline pipeline) {
 
+    if (this.flushConsolidation > 0) {
+      pipeline.addFirst("flushConsolidation", new FlushConsolidationHandler(this.flushConsolidation, true));
+    }
+
     // add into pipeline netty's (en/de)coder
     pipeline.addBefore("handler", "mqttEncoder", MqttEncoder.INSTANCE);
 
@@ -676,42 +839,160 @@ public class MqttClientImpl implements MqttClient {
     }
   }
 
+  /**
+   * Dispatch a call to the event loop of the connection, when called from a different thread
+   * <p>
+   * The state of the connection is only accessed from its event loop, so no locking is required. Calls are queued
+   * and run in batches, sharing a single flush, instead of handing over each call to the event loop on its own.
+   *
+   * @param handler the call to dispatch
+   * @return {@code true} if the call was dispatched, {@code false} if the caller already runs on the event loop of
+   *         the connection, or there is no connection yet
+   */
+  private boolean dispatch(final Handler<Void> handler) {
+    final Context ctx = this.ctx;
+    if (ctx == null || Vertx.currentContext() == ctx) {
+      return false;
+    }
+    this.dispatched.add(handler);
+    if (this.drainScheduled.compareAndSet(false, true)) {
+      ctx.runOnContext(this::drain);
+    }
+    return true;
+  }
+
+  private void drain(final Void v) {
+    this.draining = true;
+    try {
+      for (int i = 0; i < MAX_DISPATCH_BATCH; i++) {
+        final Handler<Void> handler = this.dispatched.poll();
+        if (handler == null) {
+          break;
+        }
+        handler.handle(null);
+      }
+    } finally {
+      this.draining = false;
+      flushPending();
+      this.drainScheduled.set(false);
+      // calls added after the last poll, or more than fit into one batch
+      if (!this.dispatched.isEmpty() && this.drainScheduled.compareAndSet(false, true)) {
+        Vertx.currentContext().runOnContext(this::drain);
+      }
+    }
+  }
+
     /**
      * Update and return the next message identifier
      *
      * @return message identifier
      */
-  private synchronized int nextMessageId() {
+  private int nextMessageId() {
 
     // if 0 or MAX_MESSAGE_ID, it becomes 1 (first valid messageId)
     this.messageIdCounter = ((this.messageIdCounter % MAX_MESSAGE_ID) != 0) ? this.messageIdCounter + 1 : 1;
     return this.messageIdCounter;
   }
 
-  private synchronized NetSocketInternal connection() {
+  /**
+   * Return the next message identifier, which has a free slot in the outbound storage
+   * <p>
+   * The caller must ensure that the storage is not full.
+   *
+   * @return message identifier
+   */
+  private int nextOutboundMessageId() {
+    int id;
+    do {
+      id = nextMessageId();
+    } while (!this.outbound.isFree(id));
+    return id;
+  }
+
+  private NetSocketInternal connection() {
     return connection;
   }
 
   void write(final io.netty.handler.codec.mqtt.MqttMessage mqttMessage) {
     log.debug(String.format("Sending packet %s", mqttMessage));
+    // this flushes, including all pending batched messages
+    this.unflushed = 0;
     this.connection().writeMessage(mqttMessage);
   }
 
+  private void writeBatched(final io.netty.handler.codec.mqtt.MqttMessage mqttMessage) {
+
+    if (this.flushBatchSize <= 1 && !this.draining) {
+      write(mqttMessage);
+      return;
+    }
+
+    log.debug(String.format("Sending packet %s (batched)", mqttMessage));
+
+    final ChannelHandlerContext chctx = this.connection().channelHandlerContext();
+    chctx.write(mqttMessage, chctx.voidPromise());
+    this.unflushed++;
+
+    if (this.draining) {
+      // flushed once all dispatched calls ran
+      return;
+    }
+
+    if (this.unflushed >= this.flushBatchSize) {
+      flush(chctx);
+    } else if (!this.flushScheduled) {
+      this.flushScheduled = true;
+      if (this.flushDelayMicros > 0) {
+        chctx.executor().schedule(this.flushTask, this.flushDelayMicros, TimeUnit.MICROSECONDS);
+      } else {
+        chctx.executor().execute(this.flushTask);
+      }
+    }
+  }
+
+  private void flushScheduled() {
+    this.flushScheduled = false;
+    flushPending();
+  }
+
+  private void flushPending() {
+    final NetSocketInternal connection = this.connection();
+    if (connection != null) {
+      flush(connection.channelHandlerContext());
+    }
+  }
+
+  private void flush(final ChannelHandlerContext chctx) {
+    if (this.unflushed > 0) {
+      this.unflushed = 0;
+      chctx.flush();
+    }
+  }
+
     /**
      * Used for calling the close handler when the remote MQTT server closes the connection
      */
     private void handleClosed() {
         log.info("Connection closed: " + this.connection.channelHandlerContext());
-    synchronized (this) {
-      final boolean isConnected = this.isConnected;
-      this.isConnected = false;
-      // ctron: always call close handler,
-      /*
-      if (!isConnected) {
-        return;
+    this.isConnected = false;
+    this.unflushed = 0;
+    // ctron: always call close handler
+
+    if (this.options.isCleanSession()) {
+      // the server discards the session, so there is nothing left to be acknowledged
+      this.outbound.clear();
+      if (this.qos2inbound != null) {
+        this.qos2inbound.clear();
       }
-      */
     }
+
+    // closed before the CONNACK, the connect attempt failed
+    final Handler<AsyncResult<MqttConnAckMessage>> connectHandler = connectHandler();
+    if (connectHandler != null) {
+      this.connectHandler = null;
+      connectHandler.handle(Future.failedFuture(new VertxException("Connection closed before CONNACK")));
+    }
+
     final Handler<Void> handler = closeHandler();
     if (handler != null) {
       handler.handle(null);
@@ -846,17 +1127,21 @@ public class MqttClientImpl implements MqttClient {
    */
   private void handlePuback(final int pubackMessageId) {
 
-    synchronized (this) {
+    final io.netty.handler.codec.mqtt.MqttMessage packet = outbound.get(pubackMessageId);
 
-      final io.netty.handler.codec.mqtt.MqttMessage removedPacket = qos1outbound.remove(pubackMessageId);
+    if (packet == null || packet.fixedHeader().qosLevel() != AT_LEAST_ONCE) {
+      log.debug("Received PUBACK packet without having related PUBLISH packet in storage");
+      return;
+    }
 
-      if (removedPacket == null) {
-        log.warn("Received PUBACK packet without having related PUBLISH packet in storage");
-        return;
-      }
+    final long sent = outbound.timestamp(pubackMessageId);
+    outbound.remove(pubackMessageId);
 
-      countInflightQueue--;
+    final PublishAcknowledgementHandler acknowledgementHandler = this.publishAcknowledgementHandler;
+    if (acknowledgementHandler != null) {
+      acknowledgementHandler.handle(pubackMessageId, sent);
     }
+
     final Handler<Integer> handler = publishCompletionHandler();
     if (handler != null) {
       handler.handle(pubackMessageId);
@@ -870,16 +1155,21 @@ public class MqttClientImpl implements MqttClient {
    */
   private void handlePubcomp(final int pubcompMessageId) {
 
-    synchronized (this) {
-      final io.netty.handler.codec.mqtt.MqttMessage removedPacket = qos2outbound.remove(pubcompMessageId);
+    final io.netty.handler.codec.mqtt.MqttMessage packet = outbound.get(pubcompMessageId);
 
-      if (removedPacket == null) {
-        log.warn("Received PUBCOMP packet without having related PUBREL packet in storage");
-        return;
-      }
+    if (packet == null || packet.fixedHeader().messageType() != MqttMessageType.PUBREL) {
+      log.debug("Received PUBCOMP packet without having related PUBREL packet in storage");
+      return;
+    }
 
-      countInflightQueue--;
+    final long sent = outbound.timestamp(pubcompMessageId);
+    outbound.remove(pubcompMessageId);
+
+    final PublishAcknowledgementHandler acknowledgementHandler = this.publishAcknowledgementHandler;
+    if (acknowledgementHandler != null) {
+      acknowledgementHandler.handle(pubcompMessageId, sent);
     }
+
     final Handler<Integer> handler = publishCompletionHandler();
     if (handler != null) {
       handler.handle(pubcompMessageId);
@@ -947,16 +1237,14 @@ public class MqttClientImpl implements MqttClient {
    * @param pubrelMessageId identifier of the message acknowledged by the server
    */
   private void handlePubrel(final int pubrelMessageId) {
-    MqttMessage message;
-    synchronized (this) {
-      message = qos2inbound.get(pubrelMessageId);
+    final MqttMessage message = qos2inbound != null ? qos2inbound.remove(pubrelMessageId) : null;
 
-      if (message == null) {
-        log.warn("Received PUBREL packet without having related PUBREC packet in storage");
-        return;
-      }
-      this.publishComplete(pubrelMessageId);
+    if (message == null) {
+      log.warn("Received PUBREL packet without having related PUBREC packet in storage");
+      return;
     }
+    this.publishComplete(pubrelMessageId);
+
     final Handler<MqttPublishMessage> handler = this.publishHandler();
     if (handler != null) {
       handler.handle((MqttPublishMessage) message);
@@ -970,11 +1258,10 @@ public class MqttClientImpl implements MqttClient {
    */
   private void handleConnack(final MqttConnAckMessage msg) {
 
-    synchronized (this) {
-      this.isConnected = msg.code() == MqttConnectReturnCode.CONNECTION_ACCEPTED;
-    }
+    this.isConnected = msg.code() == MqttConnectReturnCode.CONNECTION_ACCEPTED;
 
     final Handler<AsyncResult<MqttConnAckMessage>> handler = connectHandler();
+    this.connectHandler = null;
     if (handler != null) {
 
       if (msg.code() == MqttConnectReturnCode.CONNECTION_ACCEPTED) {
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.mqtt.vertx;
+
+import java.util.Arrays;
+
+/**
+ * A table of in-flight messages, indexed by their packet ID.
+ * <p>
+ * The table has a fixed number of slots, and maps packet IDs to slots by their lower bits. This doesn't box packet
+ * IDs, and doesn't allocate per entry. Along with each entry, the time it was added is recorded.
+ * <p>
+ * This class is not thread safe, it is expected to be used from the event loop of the connection only.
+ *
+ * @param <T> The type of the entries.
+ */
+final class PacketIdTable<T> {
+
+    static final int MAX_CAPACITY = 65536;
+
+    private final Object[] entries;
+    private final int[] ids;
+    private final long[] timestamps;
+    private final int mask;
+
+    private int size;
+
+    /**
+     * Create a new table.
+     *
+     * @param capacity The minimum number of slots, will be rounded up to the next power of two, and limited to
+     *        {@link #MAX_CAPACITY}.
+     */
+    PacketIdTable(final int capacity) {
+        final int c = Math.min(Math.max(capacity, 1), MAX_CAPACITY);
+        final int size = Integer.highestOneBit(c) == c ? c : Integer.highestOneBit(c) << 1;
+
+        this.entries = new Object[size];
+        this.ids = new int[size];
+        this.timestamps = new long[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return this.entries.length;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Check if the slot for a packet ID is free.
+     *
+     * @param id The packet ID.
+     * @return {@code true} if a new entry for this packet ID may be added.
+     */
+    boolean isFree(final int id) {
+        return this.entries[id & this.mask] == null;
+    }
+
+    /**
+     * Add a new entry.
+     *
+     * @param id The packet ID.
+     * @param value The entry.
+     * @param timestamp The time the entry was added.
+     * @throws IllegalStateException If the slot for the packet ID is already in use.
+     */
+    void put(final int id, final T value, final long timestamp) {
+        final int idx = id & this.mask;
+        if (this.entries[idx] != null) {
+            throw new IllegalStateException(String.format("Slot for packet ID %s is in use by %s", id, this.ids[idx]));
+        }
+
+        this.entries[idx] = value;
+        this.ids[idx] = id;
+        this.timestamps[idx] = timestamp;
+        this.size++;
+    }
+
+    /**
+     * Replace an existing entry, keeping its timestamp.
+     *
+     * @param id The packet ID.
+     * @param value The new entry.
+     * @return {@code true} if the entry was replaced, {@code false} if there was no entry for the packet ID.
+     */
+    boolean replace(final int id, final T value) {
+        final int idx = id & this.mask;
+        if (this.entries[idx] == null || this.ids[idx] != id) {
+            return false;
+        }
+        this.entries[idx] = value;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(final int id) {
+        final int idx = id & this.mask;
+        if (this.ids[idx] != id) {
+            return null;
+        }
+        return (T) this.entries[idx];
+    }
+
+    /**
+     * Get the time an entry was added.
+     *
+     * @param id The packet ID.
+     * @return The timestamp, or {@code -1} if there is no entry for the packet ID.
+     */
+    long timestamp(final int id) {
+        final int idx = id & this.mask;
+        if (this.entries[idx] == null || this.ids[idx] != id) {
+            return -1;
+        }
+        return this.timestamps[idx];
+    }
+
+    @SuppressWarnings("unchecked")
+    T remove(final int id) {
+        final int idx = id & this.mask;
+        final Object result = this.entries[idx];
+        if (result == null || this.ids[idx] != id) {
+            return null;
+        }
+
+        this.entries[idx] = null;
+        this.size--;
+        return (T) result;
+    }
+
+    /**
+     * Remove all entries which were added before a point in time.
+     *
+     * @param timestamp The point in time, comparable with the entry timestamps.
+     * @return The number of removed entries.
+     */
+    int removeOlderThan(final long timestamp) {
+        if (this.size <= 0) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (int i = 0; i < this.entries.length; i++) {
+            if (this.entries[i] != null && this.timestamps[i] - timestamp < 0) {
+                this.entries[i] = null;
+                removed++;
+            }
+        }
+
+        this.size -= removed;
+        return removed;
+    }
+
+    void clear() {
+        if (this.size > 0) {
+            Arrays.fill(this.entries, null);
+            this.size = 0;
+        }
+    }
+
+}